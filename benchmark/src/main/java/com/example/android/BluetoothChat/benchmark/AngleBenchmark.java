@@ -0,0 +1,49 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.android.BluetoothChat.AngleConverter;
+
+/**
+ * Converting an accelerometer sample to servo angles: Math.acos and
+ * convertAngle, as onSensorChanged did, against AngleConverter's table.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AngleBenchmark {
+    private final float[][] mSamples = Samples.create();
+    private final int[] mAngles = new int[2];
+    private int mNext;
+
+    @Benchmark
+    public int[] convertLegacy() {
+        Legacy.convert(mSamples[mNext++ & (Samples.COUNT - 1)], mAngles);
+        return mAngles;
+    }
+
+    @Benchmark
+    public int[] convertTable() {
+        float[] sample = mSamples[mNext++ & (Samples.COUNT - 1)];
+        AngleConverter.convert(sample[0], sample[1], sample[2], mAngles);
+        return mAngles;
+    }
+
+    @Benchmark
+    public int convertAngleLegacy() {
+        return Legacy.convertAngle((mNext++ & 1023) * (Math.PI / 1024));
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.android.BluetoothChat.ToyData;
+
+/**
+ * Building ToyData frames: a new object and array per frame, as the
+ * sensor path used to, against encoding into a reused buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBenchmark {
+    private static final int CHANNELS = 4;
+
+    private final int[] mAngles = {100, 80, 70, 110};
+    private final byte[] mFrames = new byte[CHANNELS * ToyData.FRAME_LENGTH];
+    private final ToyData mData = new ToyData();
+    private int mAngle;
+
+    @Benchmark
+    public byte[] getDataAllocating() {
+        ToyData data = new ToyData();
+        data.setChannel(1);
+        data.setAngle(60 + (mAngle++ & 63));
+        data.setSpeed(3);
+        return data.getData();
+    }
+
+    @Benchmark
+    public byte[] getDataReused() {
+        mData.setChannel(1);
+        mData.setAngle(60 + (mAngle++ & 63));
+        mData.setSpeed(3);
+        mData.getData(mFrames, 0);
+        return mFrames;
+    }
+
+    @Benchmark
+    public int encode() {
+        return ToyData.encode(mFrames, 0, 1, 60 + (mAngle++ & 63), 3);
+    }
+
+    @Benchmark
+    public int encodeChannels() {
+        mAngles[0] = 60 + (mAngle++ & 63);
+        return ToyData.encodeChannels(mFrames, 0, mAngles, CHANNELS, 3);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.android.BluetoothChat.HexCodec;
+import com.example.android.BluetoothChat.ToyData;
+
+/**
+ * Formatting frames as hex for the conversation, and parsing hex typed by
+ * the user, against the String-based code they replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HexBenchmark {
+    private final byte[] mFrame = new byte[ToyData.FRAME_LENGTH];
+    private final char[] mText = new char[2 * ToyData.FRAME_LENGTH];
+    private final String mEntry = "0xf0f10102036400" + "0d0a";
+    private final byte[] mParsed = new byte[ToyData.FRAME_LENGTH];
+
+    public HexBenchmark() {
+        ToyData.encode(mFrame, 0, 1, 100, 3);
+    }
+
+    @Benchmark
+    public String toHexStringLegacy() {
+        return Legacy.toHexString(mFrame);
+    }
+
+    @Benchmark
+    public String toHexString() {
+        return HexCodec.toHexString(mFrame);
+    }
+
+    @Benchmark
+    public char[] encodeReused() {
+        HexCodec.encode(mFrame, 0, mFrame.length, mText, 0);
+        return mText;
+    }
+
+    @Benchmark
+    public byte[] stringToHexLegacy() {
+        return Legacy.stringToHex(mEntry);
+    }
+
+    @Benchmark
+    public byte[] parseEntry() {
+        // As BluetoothChat.stringToHex
+        byte[] bytes = new byte[HexCodec.entryLength(mEntry)];
+        HexCodec.parseEntry(mEntry, bytes, 0);
+        return bytes;
+    }
+
+    @Benchmark
+    public int decodeReused() {
+        return HexCodec.decode(mEntry, 2, mEntry.length(), mParsed, 0);
+    }
+}
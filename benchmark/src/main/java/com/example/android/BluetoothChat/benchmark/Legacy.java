@@ -0,0 +1,113 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import com.example.android.BluetoothChat.FrameSink;
+import com.example.android.BluetoothChat.ToyData;
+
+/**
+ * Copies of the code the optimised paths replaced, kept as benchmark
+ * baselines. They are as they were in BluetoothChat, apart from being
+ * static and writing to a FrameSink.
+ */
+final class Legacy {
+    private Legacy() {
+    }
+
+    static String toHexString(byte [] bytes) {
+        String result = new String();
+        for (int i=0; i < bytes.length; i++) {
+            result = result.concat(Integer.toHexString((bytes[i]>>4) & 0x0F));
+            result = result.concat(Integer.toHexString(bytes[i] & 0x0F));
+        }
+
+        return result;
+    }
+
+    static byte [] stringToHex(String s){
+        if ("0x".equals(s.substring(0, 2)))
+        {
+            s = s.substring(2);
+        }
+        else {
+            return s.getBytes();
+        }
+
+        byte[] baKeyword = new byte [s.length()/2];
+        for(int i=0; i < baKeyword.length; i++){
+            try {
+                baKeyword[i] = (byte)(0xff & Integer.parseInt(s.substring(i*2, i*2+2),16));
+
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+        }
+        return baKeyword;
+    }
+
+    static int convertAngle(double angle) {
+        return (int) (( Math.PI/3 + (angle/3))*180/Math.PI);
+    }
+
+    /**
+     * The tilt and pitch angles of a sample, as onSensorChanged computed them.
+     */
+    static void convert(float[] values, int[] out) {
+        double diagLen = Math.sqrt(values[0] * values[0] +
+                                  values[1] * values[1] +
+                                  values[2] * values[2]);
+        double xangle = Math.acos((values[0])/diagLen);
+        double yangle = Math.acos(Math.abs(values[1])/diagLen);
+        double yConvertAngle = Math.PI/2 + (xangle>Math.PI/2?-1:1)*yangle;
+        double zConvertAngle = Math.acos((values[2])/diagLen);
+        out[0] = convertAngle(yConvertAngle);
+        out[1] = convertAngle(zConvertAngle);
+    }
+
+    /**
+     * The sample-to-frames work of onSensorChanged: four frames, each
+     * built in a new array.
+     */
+    static void sendTilt(float[] values, int speed, FrameSink sink) {
+        ToyData data = new ToyData();
+        double diagLen = Math.sqrt(values[0] * values[0] +
+                                  values[1] * values[1] +
+                                  values[2] * values[2]);
+        double xangle,yangle,zangle;
+        int randAngle1,randAngle2;
+        double yConvertAngle, zConvertAngle;
+
+        xangle = Math.acos((values[0])/diagLen);
+        yangle = Math.acos(Math.abs(values[1])/diagLen);
+        yConvertAngle = Math.PI/2 + (xangle>Math.PI/2?-1:1)*yangle;
+
+        zangle = Math.acos((values[2])/diagLen);
+        zConvertAngle = zangle;
+
+        randAngle1 = 60+(int)((Math.random()*60));
+        randAngle2 = 60+(int)((Math.random()*60));
+
+        data.setAngle(convertAngle(yConvertAngle));
+        data.setSpeed(speed);
+        data.setChannel(0);
+        byte[] frame = data.getData();
+        sink.write(frame, 0, frame.length);
+
+        data.setAngle(convertAngle(zConvertAngle));
+        data.setSpeed(speed);
+        data.setChannel(1);
+        frame = data.getData();
+        sink.write(frame, 0, frame.length);
+
+        data.setAngle(randAngle1);
+        data.setSpeed(speed);
+        data.setChannel(2);
+        frame = data.getData();
+        sink.write(frame, 0, frame.length);
+
+        data.setAngle(randAngle2);
+        data.setSpeed(speed);
+        data.setChannel(3);
+        frame = data.getData();
+        sink.write(frame, 0, frame.length);
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import java.util.Random;
+
+/**
+ * Accelerometer samples for the benchmarks: a device held roughly upright
+ * and tilted about, with sensor noise, from a fixed seed.
+ */
+final class Samples {
+    static final int COUNT = 1024;  // a power of two, for cheap wrapping
+
+    private Samples() {
+    }
+
+    /**
+     * Return COUNT samples of {x, y, z} in m/s^2.
+     */
+    static float[][] create() {
+        Random random = new Random(42);
+        float[][] samples = new float[COUNT][3];
+        for (int i = 0; i < COUNT; i++) {
+            double tilt = Math.sin(i * 0.05) * 0.8;
+            double pitch = Math.cos(i * 0.03) * 0.6;
+            samples[i][0] = (float) (9.81 * Math.sin(tilt) + random.nextGaussian() * 0.2);
+            samples[i][1] = (float) (9.81 * Math.cos(tilt) * Math.cos(pitch) + random.nextGaussian() * 0.2);
+            samples[i][2] = (float) (9.81 * Math.sin(pitch) + random.nextGaussian() * 0.2);
+        }
+        return samples;
+    }
+}
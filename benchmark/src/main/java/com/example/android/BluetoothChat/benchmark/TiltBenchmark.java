@@ -0,0 +1,93 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.android.BluetoothChat.FrameSink;
+import com.example.android.BluetoothChat.TiltPipeline;
+
+/**
+ * The whole tilt-to-frame computation for one sample, from raw
+ * accelerometer values to frames handed to the connection, as
+ * onSensorChanged used to do it and as TiltPipeline does it. Each
+ * operation takes the next sample and a clock 20 ms on, the sensor's
+ * game rate.
+ *
+ * legacy() sends all four frames every time, so pipeline() compares like
+ * with like by turning change suppression off. pipelineSuppressed() runs
+ * with the app's deadband and keyframe settings, where most frames are
+ * held back; it measures the pipeline as shipped, not the same work.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TiltBenchmark {
+    private static final long SAMPLE_INTERVAL_NS = 20000000L;
+    private static final int SPEED = 3;
+
+    private final float[][] mSamples = Samples.create();
+    private TiltPipeline mPipeline;
+    private TiltPipeline mSuppressedPipeline;
+    private FrameSink mSink;
+    private long mNow;
+    private int mNext;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        // Passes frames to the Blackhole so the work is not optimised away
+        mSink = new FrameSink() {
+            public void write(byte[] buffer, int offset, int length) {
+                blackhole.consume(buffer);
+            }
+            public boolean writeBlocking(byte[] buffer, int offset, int length) {
+                blackhole.consume(buffer);
+                return true;
+            }
+            public void writeFrames(byte[] frames, int offset, int length) {
+                blackhole.consume(frames);
+            }
+        };
+        mPipeline = new TiltPipeline(mSink);
+        mPipeline.setSpeed(SPEED);
+        // No angle is ever within a negative deadband: every frame is sent
+        mPipeline.getSuppressor().setDeadband(-1);
+        mSuppressedPipeline = new TiltPipeline(mSink);
+        mSuppressedPipeline.setSpeed(SPEED);
+    }
+
+    @Benchmark
+    public void legacy() {
+        Legacy.sendTilt(mSamples[mNext++ & (Samples.COUNT - 1)], SPEED, mSink);
+    }
+
+    @Benchmark
+    public void pipeline() {
+        step(mPipeline);
+    }
+
+    @Benchmark
+    public void pipelineSuppressed() {
+        step(mSuppressedPipeline);
+    }
+
+    private void step(TiltPipeline pipeline) {
+        float[] sample = mSamples[mNext++ & (Samples.COUNT - 1)];
+        mNow += SAMPLE_INTERVAL_NS;
+        pipeline.onSample(sample[0], sample[1], sample[2], mNow);
+        pipeline.tick(mNow);
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+
+import com.example.android.BluetoothChat.MetricsRegistry;
+import com.example.android.BluetoothChat.TcpTransport;
+import com.example.android.BluetoothChat.ToyFrameParser;
+import com.example.android.BluetoothChat.Transport;
+
+/**
+ * A software stand-in for the toy. It decodes the ToyData frames arriving
+ * on a Transport and moves a simulated servo per channel toward each
+ * commanded angle at the commanded speed, recording when every target was
+ * commanded and when it was reached. Frames with a bad parity byte or a
+ * bad tail are counted, as are bytes skipped between frames.
+ *
+ * A frame's speed byte is taken as the servo's rate in units of
+ * rateScale angle units per second; a speed of 0 moves at once. Servos
+ * start at INITIAL_ANGLE. A command arriving while its channel is still
+ * moving replaces the target from the current position, and the old
+ * target is counted as superseded. A command for the angle the servo
+ * already holds, or is already moving to, is counted as a repeat and
+ * leaves the servo as it is.
+ *
+ * Run from the benchmark jar:
+ *     java -cp target/benchmarks.jar \
+ *         com.example.android.BluetoothChat.benchmark.ToyEmulator [port] [rateScale]
+ */
+public class ToyEmulator {
+    public static final int DEFAULT_PORT = 5555;
+    public static final double DEFAULT_RATE_SCALE = 60;
+    public static final int INITIAL_ANGLE = 90;
+
+    private static final int CHANNELS = 256;
+    private static final long REPORT_INTERVAL_MS = 5000;
+
+    /**
+     * Receives servo events, on the thread calling serve().
+     */
+    public interface Listener {
+        /**
+         * @param time  System.nanoTime() when the frame was read
+         */
+        void onCommand(int channel, int angle, long time);
+
+        /**
+         * @param commandTime  When the target was commanded
+         * @param reachTime    When the servo reached it, which may be later
+         *                     than the call if the stream ended first
+         */
+        void onReached(int channel, int angle, long commandTime, long reachTime);
+    }
+
+    private final double mRateScale;
+    private final Servo[] mServos = new Servo[CHANNELS];
+    private final ToyFrameParser mParser;
+    private volatile Listener mListener;
+    // Time of the chunk being decoded, for the frames it holds
+    private long mNow;
+
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final MetricsRegistry.Counter mCommands = mMetrics.counter("commands");
+    private final MetricsRegistry.Counter mReached = mMetrics.counter("reached");
+    private final MetricsRegistry.Counter mSuperseded = mMetrics.counter("superseded");
+    private final MetricsRegistry.Counter mRepeats = mMetrics.counter("repeats");
+    private final MetricsRegistry.Counter mParityErrors = mMetrics.counter("parity_errors");
+    private final MetricsRegistry.Counter mMalformed = mMetrics.counter("malformed_frames");
+    private final MetricsRegistry.Counter mSkipped = mMetrics.counter("skipped_bytes");
+    private final MetricsRegistry.Histogram mMotionTime = mMetrics.histogram("motion_latency");
+
+    /**
+     * One channel's servo. Its position is worked out from the current
+     * move when needed rather than stepped on a timer.
+     */
+    private static final class Servo {
+        double mFrom = INITIAL_ANGLE;  // position when the move began
+        int mTarget = INITIAL_ANGLE;
+        long mCommandTime;
+        long mReachTime;
+        boolean mMoving = false;
+
+        double position(long now) {
+            if (!mMoving || now >= mReachTime) return mTarget;
+            double done = (double) (now - mCommandTime) / (mReachTime - mCommandTime);
+            return mFrom + (mTarget - mFrom) * done;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param rateScale  Angle units per second for each unit of the speed byte
+     */
+    public ToyEmulator(double rateScale) {
+        mRateScale = rateScale;
+        for (int i = 0; i < CHANNELS; i++) {
+            mServos[i] = new Servo();
+        }
+        mParser = new ToyFrameParser(new ToyFrameParser.Listener() {
+            public void onFrame(int channel, int angle, int speed, int additional) {
+                command(channel, angle, speed, mNow);
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Return where a channel's servo is at the given time.
+     */
+    public synchronized double getPosition(int channel, long now) {
+        return mServos[channel].position(now);
+    }
+
+    /**
+     * Decode frames from a transport until it ends, then finish the moves
+     * still under way. Call for one transport at a time.
+     */
+    public void serve(Transport transport) throws IOException {
+        InputStream in = transport.getInputStream();
+        byte[] buffer = new byte[1024];
+        mParser.reset();
+        try {
+            int bytes;
+            while ((bytes = in.read(buffer)) >= 0) {
+                long now = System.nanoTime();
+                synchronized (this) {
+                    settle(now);
+                    mNow = now;
+                    mParser.feed(buffer, 0, bytes);
+                    updateErrors();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                settle(Long.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Report every move that has finished by the given time.
+     */
+    private void settle(long now) {
+        for (int i = 0; i < CHANNELS; i++) {
+            Servo servo = mServos[i];
+            if (servo.mMoving && servo.mReachTime <= now) reached(i, servo);
+        }
+    }
+
+    private void command(int channel, int angle, int speed, long now) {
+        Servo servo = mServos[channel];
+        mCommands.increment();
+        Listener listener = mListener;
+        if (listener != null) listener.onCommand(channel, angle, now);
+
+        if (servo.mMoving && servo.mReachTime <= now) reached(channel, servo);
+        if (angle == servo.mTarget) {
+            // Held or on its way: keep the move and its command time
+            mRepeats.increment();
+            return;
+        }
+        double from = servo.position(now);
+        if (servo.mMoving) mSuperseded.increment();
+
+        servo.mFrom = from;
+        servo.mTarget = angle;
+        servo.mCommandTime = now;
+        double distance = Math.abs(angle - from);
+        servo.mReachTime = speed == 0 ? now
+                : now + (long) (distance / (speed * mRateScale) * 1e9);
+        servo.mMoving = true;
+        if (servo.mReachTime <= now) reached(channel, servo);
+    }
+
+    private void reached(int channel, Servo servo) {
+        servo.mMoving = false;
+        mReached.increment();
+        mMotionTime.record(servo.mReachTime - servo.mCommandTime);
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onReached(channel, servo.mTarget, servo.mCommandTime, servo.mReachTime);
+        }
+    }
+
+    private void updateErrors() {
+        mParityErrors.set(mParser.getChecksumErrorCount());
+        mMalformed.set(mParser.getFramingErrorCount());
+        mSkipped.set(mParser.getSkippedByteCount());
+    }
+
+    /**
+     * Listen on a TCP port and emulate the toy for each connection in turn,
+     * printing the metrics every few seconds and after each connection.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        double rateScale = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_RATE_SCALE;
+        final ToyEmulator emulator = new ToyEmulator(rateScale);
+
+        Thread reporter = new Thread("ToyEmulatorReport") {
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(REPORT_INTERVAL_MS);
+                        emulator.printReport();
+                    }
+                } catch (InterruptedException e) {
+                    // Exit quietly
+                }
+            }
+        };
+        reporter.setDaemon(true);
+        reporter.start();
+
+        ServerSocket server = new ServerSocket(port);
+        System.out.println("Toy emulator listening on port " + server.getLocalPort());
+        try {
+            while (true) {
+                TcpTransport transport = new TcpTransport(server.accept());
+                System.out.println("Connected to " + transport.getName());
+                try {
+                    emulator.serve(transport);
+                } catch (IOException e) {
+                    System.out.println("Connection failed: " + e.getMessage());
+                } finally {
+                    transport.close();
+                }
+                System.out.println("Disconnected");
+                emulator.printReport();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private void printReport() {
+        StringBuilder text = new StringBuilder();
+        mMetrics.format(text, true);
+        System.out.print(text);
+        System.out.println();
+    }
+}
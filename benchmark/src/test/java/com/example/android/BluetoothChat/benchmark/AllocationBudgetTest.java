@@ -0,0 +1,212 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.example.android.BluetoothChat.ConnectionTraffic;
+import com.example.android.BluetoothChat.LatencyTrace;
+import com.example.android.BluetoothChat.LoopbackTransport;
+import com.example.android.BluetoothChat.MetricsRegistry;
+import com.example.android.BluetoothChat.SessionRecorder;
+import com.example.android.BluetoothChat.TiltPipeline;
+import com.example.android.BluetoothChat.TransportConnection;
+
+/**
+ * Guards the sensor-to-wire path against allocations creeping back in.
+ * It drives the same pieces the app wires together for a connection,
+ * from accelerometer sample through TiltPipeline, the ConnectionTraffic
+ * that BluetoothService queues frames into and handles every write with,
+ * and TransportConnection's writer to a loopback transport drained by a
+ * stand-in for the toy, and counts the bytes allocated by the sending
+ * thread and the writer thread over a run of ticks. The path runs once
+ * as normally used and once with the latency trace enabled and a session
+ * recording in progress, so their branches are held to the same budget.
+ *
+ * The Android-only parts of the path are left out: the service's state
+ * check before queueing, and its UI messages, which come from Android's
+ * Message pool.
+ *
+ * The run length and budget can be set with -Dallocation.ticks and
+ * -Dallocation.budget, in bytes per tick averaged over both threads.
+ */
+public class AllocationBudgetTest {
+    private static final int TICKS = Integer.getInteger("allocation.ticks", 200000);
+    private static final double BUDGET =
+            Double.parseDouble(System.getProperty("allocation.budget", "0"));
+
+    private static final int WARMUP_TICKS = 20000;
+    // Covers the measurement itself and one-off lazy initialisation
+    private static final long SLACK_BYTES = 16 * 1024;
+    private static final long QUIET_TIMEOUT_MS = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final com.sun.management.ThreadMXBean mThreads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final SessionRecorder mRecorder = new SessionRecorder(64 * 1024);
+    private final LatencyTrace mTrace = new LatencyTrace(4096);
+
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final MetricsRegistry.Counter mSensorSamples = mMetrics.counter("sensor_samples");
+    private final MetricsRegistry.Histogram mSampleTime = mMetrics.histogram("sample_processing");
+    private final ConnectionTraffic mTraffic = new ConnectionTraffic(mMetrics,
+            new ConnectionTraffic.Callback() {
+        public void onEchoPending(long delayMillis) {
+        }
+        public void onLost(IOException e) {
+        }
+    });
+
+    // Set by the writer thread: itself on its first write, and the writes done
+    private volatile Thread mWriter;
+    private volatile long mWrites;
+
+    private final TiltPipeline mPipeline;
+    private final TransportConnection mConnection;
+    private final LoopbackTransport mToy;
+
+    public AllocationBudgetTest() {
+        mPipeline = new TiltPipeline(mTraffic);
+        mPipeline.setTrace(mTrace);
+        mTraffic.setLatencyTrace(mTrace);
+        mTraffic.setSessionRecorder(mRecorder);
+
+        LoopbackTransport[] pair = LoopbackTransport.createPair(4096);
+        mToy = pair[1];
+        mConnection = new TransportConnection(pair[0], mTraffic.getQueue(),
+                new TransportConnection.Listener() {
+            public void onRead(byte[] buffer, int length) {
+                mTraffic.onRead(buffer, length);
+            }
+            public void onWrite(byte[] buffer, int length, long takenTime, long nanos) {
+                if (mWriter == null) mWriter = Thread.currentThread();
+                mTraffic.onWrite(buffer, length, takenTime, nanos);
+                mWrites++;
+            }
+            public void onLost(IOException e) {
+                mTraffic.onLost(e);
+            }
+        });
+    }
+
+    @Test
+    public void sensorToWirePathDoesNotAllocate() throws InterruptedException {
+        assertWithinBudget("untraced", measure(TICKS));
+    }
+
+    @Test
+    public void tracedAndRecordedPathDoesNotAllocate() throws Exception {
+        mTrace.setEnabled(true);
+        mRecorder.start(mFolder.newFile("session.tsr"));
+        try {
+            assertWithinBudget("traced and recorded", measure(TICKS));
+        } finally {
+            mRecorder.stop();
+            mTrace.setEnabled(false);
+        }
+        assertTrue("no trace rows completed", mTrace.size() > 0);
+    }
+
+    private static void assertWithinBudget(String what, long allocated) {
+        double perTick = (double) Math.max(0, allocated - SLACK_BYTES) / TICKS;
+        System.out.println(what + ": " + TICKS + " ticks, " + perTick
+                + " bytes per tick beyond " + SLACK_BYTES + " bytes of slack");
+        assertTrue(what + " sensor-to-wire path allocates " + perTick
+                + " bytes per tick, budget " + BUDGET, perTick <= BUDGET);
+    }
+
+    /**
+     * Run the path for a number of ticks after a warm-up and return the
+     * bytes allocated by the sending and writer threads.
+     */
+    private long measure(int ticks) throws InterruptedException {
+        startToy();
+        mConnection.start();
+        try {
+            float[][] samples = Samples.create();
+            run(samples, WARMUP_TICKS);
+            waitQuiet();
+
+            Thread writer = mWriter;
+            assertNotNull("nothing was written", writer);
+            long sender = mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long written = mThreads.getThreadAllocatedBytes(writer.getId());
+            run(samples, ticks);
+            waitQuiet();
+            sender = mThreads.getThreadAllocatedBytes(Thread.currentThread().getId()) - sender;
+            written = mThreads.getThreadAllocatedBytes(writer.getId()) - written;
+
+            System.out.println("sender allocated " + sender + " bytes, writer "
+                    + written + " bytes");
+            return sender + written;
+        } finally {
+            mConnection.close();
+            mToy.close();
+        }
+    }
+
+    /**
+     * One sample and one tick at a time, as onSensorChanged and the
+     * TransmitScheduler do, on a single thread.
+     */
+    private void run(float[][] samples, int ticks) {
+        long timestamp = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            float[] sample = samples[i & (Samples.COUNT - 1)];
+            timestamp += 20000000;  // SENSOR_DELAY_GAME
+
+            // As BluetoothChat.onSensorChanged and processSample
+            mRecorder.recordSample(sample[0], sample[1], sample[2], timestamp);
+            long start = System.nanoTime();
+            mPipeline.onSample(sample[0], sample[1], sample[2], timestamp);
+            mSampleTime.record(System.nanoTime() - start);
+            mSensorSamples.increment();
+
+            mPipeline.tick(System.nanoTime());
+        }
+    }
+
+    /**
+     * Wait for the writer to empty the queue and finish its last write.
+     */
+    private void waitQuiet() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + QUIET_TIMEOUT_MS;
+        long writes;
+        do {
+            writes = mWrites;
+            Thread.sleep(20);
+        } while ((mTraffic.getQueue().size() > 0 || mWrites != writes)
+                && System.currentTimeMillis() < deadline);
+    }
+
+    /**
+     * Drain the other end of the loopback, as the toy would.
+     */
+    private void startToy() {
+        Thread toy = new Thread("Toy") {
+            public void run() {
+                byte[] buffer = new byte[1024];
+                try {
+                    InputStream in = mToy.getInputStream();
+                    while (in.read(buffer) >= 0) {
+                        // Discard
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        };
+        toy.setDaemon(true);
+        toy.start();
+    }
+}
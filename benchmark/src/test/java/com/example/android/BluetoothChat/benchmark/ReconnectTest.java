@@ -0,0 +1,133 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.example.android.BluetoothChat.Backoff;
+import com.example.android.BluetoothChat.FrameRingBuffer;
+
+/**
+ * Checks the two pieces BluetoothService relies on to reconnect after a
+ * lost connection. FrameRingBuffer.clearAllButLatest() must keep only the
+ * frame waiting for each channel, in order, when the queue has wrapped
+ * round, and later frames for those channels must still merge into the
+ * slots they were moved to. Backoff.nextDelay() must stay in the upper
+ * half of a range that doubles from the initial delay up to the maximum,
+ * and start over after reset().
+ */
+public class ReconnectTest {
+    private static final int SEEDS = 100;
+    private static final int ATTEMPTS = 40;
+
+    /**
+     * Fill a queue that has wrapped round with channel frames between
+     * plain ones, keep the latest per channel, then queue more.
+     */
+    @Test
+    public void clearAllButLatestCompactsWrappedQueue() throws InterruptedException {
+        // One-byte frames, named by their byte
+        FrameRingBuffer queue = new FrameRingBuffer(5, 1, FrameRingBuffer.POLICY_DROP_NEWEST);
+
+        // Move the head to the middle so the frames below wrap round
+        put(queue, 'x');
+        put(queue, 'x');
+        put(queue, 'x');
+        queue.take(new byte[16]);
+
+        putLatest(queue, 'a', 0);
+        put(queue, 'B');
+        putLatest(queue, 'c', 1);
+        put(queue, 'D');
+        putLatest(queue, 'e', 2);
+        queue.clearAllButLatest();
+        assertEquals("frames kept", 3, queue.size());
+
+        // Replace c and e in the slots they were moved to
+        putLatest(queue, 'C', 1);
+        putLatest(queue, 'E', 2);
+        putLatest(queue, 'f', 3);
+        put(queue, 'G');
+        assertEquals("merged into moved slots", 2, queue.getCoalescedCount());
+        assertEquals("aCEfG", contents(queue));
+
+        // Nothing is left pending for the taken frames' channels
+        putLatest(queue, 'h', 1);
+        assertEquals("h", contents(queue));
+        assertEquals("frames dropped", 0, queue.getDroppedCount());
+    }
+
+    /**
+     * Draw delays with many seeds and compare each with its range.
+     */
+    @Test
+    public void backoffDelaysStayInTheirRange() {
+        long initial = Backoff.INITIAL_DELAY_MS;
+        long max = Backoff.MAX_DELAY_MS;
+        for (int seed = 0; seed < SEEDS; seed++) {
+            Backoff backoff = new Backoff(initial, max, new Random(seed));
+            for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+                assertInRange("seed " + seed + ", attempt " + attempt,
+                        Math.min(max, initial << Math.min(attempt, 30)), backoff.nextDelay());
+            }
+            assertEquals("attempts counted", ATTEMPTS, backoff.getAttempts());
+            backoff.reset();
+            assertEquals("attempts after reset", 0, backoff.getAttempts());
+            assertInRange("seed " + seed + ", after reset", initial, backoff.nextDelay());
+        }
+    }
+
+    @Test
+    public void backoffJitterReachesBothEnds() {
+        long initial = Backoff.INITIAL_DELAY_MS;
+        long max = Backoff.MAX_DELAY_MS;
+        assertEquals(initial / 2, new Backoff(initial, max, new FixedRandom(0)).nextDelay());
+        assertEquals(initial, new Backoff(initial, max, new FixedRandom(1)).nextDelay());
+    }
+
+    private static void assertInRange(String what, long range, long delay) {
+        assertTrue(what + ": " + delay + " ms outside " + range / 2 + "-" + range + " ms",
+                delay >= range / 2 && delay <= range);
+    }
+
+    /**
+     * A Random whose nextDouble() always returns the same value.
+     */
+    private static class FixedRandom extends Random {
+        private final double mValue;
+
+        FixedRandom(double value) {
+            mValue = value;
+        }
+
+        public double nextDouble() {
+            return mValue;
+        }
+    }
+
+    private static void put(FrameRingBuffer queue, char frame) {
+        queue.put(new byte[] {(byte) frame}, 0, 1);
+    }
+
+    private static void putLatest(FrameRingBuffer queue, char frame, int channel) {
+        queue.putLatest(new byte[] {(byte) frame}, 0, 1, channel);
+    }
+
+    /**
+     * Take everything queued and return it as text.
+     */
+    private static String contents(FrameRingBuffer queue) throws InterruptedException {
+        StringBuilder text = new StringBuilder();
+        byte[] buffer = new byte[16];
+        while (queue.size() > 0) {
+            int length = queue.take(buffer);
+            for (int i = 0; i < length; i++) {
+                text.append((char) buffer[i]);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.example.android.BluetoothChat.ConnectionTraffic;
+import com.example.android.BluetoothChat.LoopbackTransport;
+import com.example.android.BluetoothChat.MetricsRegistry;
+import com.example.android.BluetoothChat.TcpTransport;
+import com.example.android.BluetoothChat.ToyData;
+import com.example.android.BluetoothChat.ToyFrameParser;
+import com.example.android.BluetoothChat.Transport;
+import com.example.android.BluetoothChat.TransportConnection;
+
+/**
+ * Checks that frames survive a round trip over each transport and that a
+ * TransportConnection shuts down cleanly. Over a LoopbackTransport pair
+ * and over TCP on localhost, frames are queued into the ConnectionTraffic
+ * that BluetoothService uses, a stand-in for the toy echoes every byte
+ * back, and the traffic's parser must decode every frame, in order. A
+ * connection is then ended both ways: close() must stop both threads
+ * without reporting a lost connection, and the other end closing must
+ * report exactly one.
+ */
+public class RoundTripTest {
+    private static final int FRAMES = 10000;
+    private static final long TIMEOUT_MS = 10000;
+    private static final int LOOPBACK_CAPACITY = 4096;
+
+    private Transport[] mEnds;
+    private TransportConnection mConnection;
+
+    /**
+     * Counts what a connection reports, and checks each decoded frame
+     * against the one sent in its place.
+     */
+    private static class Traffic implements ConnectionTraffic.Callback, ToyFrameParser.Listener {
+        final ConnectionTraffic mTraffic = new ConnectionTraffic(new MetricsRegistry(), this);
+        volatile int mReceived = 0;
+        volatile int mMismatched = 0;
+        volatile int mLost = 0;
+
+        Traffic() {
+            mTraffic.setFrameListener(this);
+        }
+
+        public void onFrame(int channel, int angle, int speed, int additional) {
+            int n = mReceived;
+            if (channel != channel(n) || angle != angle(n) || speed != speed(n)) mMismatched++;
+            mReceived = n + 1;
+        }
+
+        public void onEchoPending(long delayMillis) {
+        }
+
+        public synchronized void onLost(IOException e) {
+            mLost++;
+            notifyAll();
+        }
+
+        synchronized void awaitLost(long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            while (mLost == 0 && System.currentTimeMillis() < deadline) {
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        }
+    }
+
+    // The n-th frame sent
+    private static int channel(int n) {
+        return n % 4;
+    }
+
+    private static int angle(int n) {
+        return n % 181;
+    }
+
+    private static int speed(int n) {
+        return 1 + n % 100;
+    }
+
+    private static Transport[] openLoopback() {
+        return LoopbackTransport.createPair(LOOPBACK_CAPACITY);
+    }
+
+    private static Transport[] openTcp() throws IOException {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        try {
+            TcpTransport app = TcpTransport.connect("127.0.0.1", server.getLocalPort(),
+                    (int) TIMEOUT_MS);
+            return new Transport[] {app, new TcpTransport(server.accept())};
+        } finally {
+            server.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mConnection != null) mConnection.close();
+        if (mEnds != null) mEnds[1].close();
+    }
+
+    @Test
+    public void loopbackRoundTrip() throws Exception {
+        checkRoundTrip(openLoopback());
+    }
+
+    @Test
+    public void tcpRoundTrip() throws Exception {
+        checkRoundTrip(openTcp());
+    }
+
+    @Test
+    public void loopbackRemoteClose() throws Exception {
+        checkRemoteClose(openLoopback());
+    }
+
+    @Test
+    public void tcpRemoteClose() throws Exception {
+        checkRemoteClose(openTcp());
+    }
+
+    /**
+     * Send frames to a toy that echoes them, then close the connection
+     * from the app's side.
+     */
+    private void checkRoundTrip(Transport[] ends) throws Exception {
+        mEnds = ends;
+        Thread toy = startEcho(ends[1]);
+        Traffic traffic = new Traffic();
+        mConnection = new TransportConnection(ends[0], traffic.mTraffic.getQueue(),
+                traffic.mTraffic);
+        mConnection.start();
+
+        byte[] frame = new byte[ToyData.FRAME_LENGTH];
+        for (int n = 0; n < FRAMES; n++) {
+            ToyData.encode(frame, 0, channel(n), angle(n), speed(n));
+            assertTrue("frame refused", traffic.mTraffic.writeBlocking(frame, 0, frame.length));
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (traffic.mReceived < FRAMES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        ToyFrameParser parser = traffic.mTraffic.getFrameParser();
+        assertEquals("frames echoed", FRAMES, traffic.mReceived);
+        assertEquals("frames out of order or altered", 0, traffic.mMismatched);
+        assertEquals("checksum errors", 0, parser.getChecksumErrorCount());
+        assertEquals("framing errors", 0, parser.getFramingErrorCount());
+
+        mConnection.close();
+        assertTrue("closed", mConnection.isClosed());
+        assertEquals("threads left after close()", 0, awaitConnectionThreads());
+        toy.join(TIMEOUT_MS);
+        assertFalse("toy still reading after close()", toy.isAlive());
+        assertEquals("lost connections reported after close()", 0, traffic.mLost);
+    }
+
+    /**
+     * Close the toy's end under a running connection.
+     */
+    private void checkRemoteClose(Transport[] ends) throws Exception {
+        mEnds = ends;
+        Traffic traffic = new Traffic();
+        mConnection = new TransportConnection(ends[0], traffic.mTraffic.getQueue(),
+                traffic.mTraffic);
+        mConnection.start();
+
+        ends[1].close();
+        traffic.awaitLost(TIMEOUT_MS);
+        assertEquals("threads left after the other end closed", 0, awaitConnectionThreads());
+        // As the service does from connectionLost()
+        mConnection.close();
+        assertEquals("lost connections reported", 1, traffic.mLost);
+    }
+
+    /**
+     * Echo everything read from the transport until it is closed.
+     */
+    private static Thread startEcho(final Transport transport) {
+        Thread toy = new Thread("Toy") {
+            public void run() {
+                byte[] buffer = new byte[1024];
+                try {
+                    InputStream in = transport.getInputStream();
+                    OutputStream out = transport.getOutputStream();
+                    int bytes;
+                    while ((bytes = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, bytes);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        };
+        toy.setDaemon(true);
+        toy.start();
+        return toy;
+    }
+
+    /**
+     * Wait for the connection threads to end.
+     * @return The number still running at the timeout
+     */
+    private static int awaitConnectionThreads() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        int running;
+        while ((running = countConnectionThreads()) > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return running;
+    }
+
+    private static int countConnectionThreads() {
+        int running = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (thread.isAlive() && ("ReadThread".equals(name) || "WriteThread".equals(name))) {
+                running++;
+            }
+        }
+        return running;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.BluetoothChat.benchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.example.android.BluetoothChat.ToyData;
+
+/**
+ * Checks that ToyData's static encoders write the same frame as the
+ * original getData(), and that encoding into a caller's buffer allocates
+ * nothing, so the sensor path can encode a frame per channel every tick.
+ */
+public class ToyDataTest {
+    private static final int FRAMES = 1000000;
+    private static final int WARMUP_FRAMES = 100000;
+    // Covers the measurement itself
+    private static final long SLACK_BYTES = 1024;
+
+    private final com.sun.management.ThreadMXBean mThreads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Read back after each run so the encoding cannot be optimised away
+    private int mCheck;
+
+    @Test
+    public void encodersMatchGetData() {
+        ToyData data = new ToyData();
+        data.setChannel(2);
+        data.setAngle(75);
+        data.setSpeed(10);
+        byte[] expected = data.getData();
+        assertArrayEquals(new byte[] {(byte) 0xF0, (byte) 0xF1, 2, 75, 10, 87, 0, 0x0D, 0x0A},
+                expected);
+
+        byte[] frame = new byte[ToyData.FRAME_LENGTH + 1];
+        assertEquals(ToyData.FRAME_LENGTH + 1, ToyData.encode(frame, 1, 2, 75, 10));
+        assertArrayEquals(expected, copy(frame, 1));
+
+        ByteBuffer buffer = ByteBuffer.allocate(ToyData.FRAME_LENGTH);
+        ToyData.encode(buffer, 2, 75, 10);
+        assertEquals(ToyData.FRAME_LENGTH, buffer.position());
+        assertArrayEquals(expected, buffer.array());
+
+        byte[] frames = new byte[ToyData.FRAME_LENGTH * 3];
+        assertEquals(frames.length,
+                ToyData.encodeChannels(frames, 0, new int[] {60, 70, 75}, 3, 10));
+        assertArrayEquals(expected, copy(frames, ToyData.FRAME_LENGTH * 2));
+    }
+
+    @Test
+    public void encodingDoesNotAllocate() {
+        byte[] frame = new byte[ToyData.FRAME_LENGTH];
+        ByteBuffer buffer = ByteBuffer.allocate(ToyData.FRAME_LENGTH);
+        int[] angles = new int[4];
+        byte[] frames = new byte[ToyData.FRAME_LENGTH * angles.length];
+
+        encode(frame, buffer, angles, frames, WARMUP_FRAMES);
+        long thread = Thread.currentThread().getId();
+        long allocated = mThreads.getThreadAllocatedBytes(thread);
+        encode(frame, buffer, angles, frames, FRAMES);
+        allocated = mThreads.getThreadAllocatedBytes(thread) - allocated;
+
+        assertTrue("check value", mCheck != 0);
+        assertTrue("encoding " + FRAMES + " frames allocated " + allocated + " bytes",
+                allocated <= SLACK_BYTES);
+    }
+
+    /**
+     * Encode a number of frames each way.
+     */
+    private void encode(byte[] frame, ByteBuffer buffer, int[] angles, byte[] frames, int count) {
+        int check = 0;
+        for (int i = 0; i < count; i++) {
+            int angle = i % 181;
+            check += ToyData.encode(frame, 0, i & 3, angle, 10) + frame[5];
+
+            buffer.clear();
+            ToyData.encode(buffer, i & 3, angle, 10);
+            check += buffer.get(5);
+
+            angles[i & 3] = angle;
+            check += ToyData.encodeChannels(frames, 0, angles, angles.length, 10) + frames[5];
+        }
+        mCheck += check;
+    }
+
+    private static byte[] copy(byte[] buffer, int offset) {
+        byte[] frame = new byte[ToyData.FRAME_LENGTH];
+        System.arraycopy(buffer, offset, frame, 0, frame.length);
+        return frame;
+    }
+}
@@ -26,28 +26,39 @@ public final class R {
         public static final int white=0x7f020009;
     }
     public static final class id {
+        public static final int adaptive_rate=0x7f060019;
+        public static final int auto_reconnect=0x7f060023;
         public static final int buttonCancle=0x7f06000a;
         public static final int button_begin=0x7f060014;
+        public static final int button_cancel=0x7f06001b;
         public static final int button_char_mode=0x7f060011;
         public static final int button_clean=0x7f060012;
         public static final int button_hex_mode=0x7f060010;
         public static final int button_open=0x7f060015;
+        public static final int button_pause=0x7f06001a;
         public static final int button_scan=0x7f060006;
         public static final int button_send=0x7f06000d;
         public static final int button_setrate=0x7f06000f;
         public static final int button_stop=0x7f060013;
         public static final int discoverable=0x7f060018;
+        public static final int dump_metrics=0x7f060021;
         public static final int edit_text_out=0x7f06000c;
         public static final int edit_text_rate=0x7f06000e;
         public static final int icon=0x7f060007;
         public static final int in=0x7f06000b;
         public static final int insecure_connect_scan=0x7f060017;
         public static final int mPath=0x7f060009;
+        public static final int metrics_overlay=0x7f06001f;
         public static final int new_devices=0x7f060005;
         public static final int paired_devices=0x7f060003;
+        public static final int record_session=0x7f06001c;
+        public static final int replay_session=0x7f06001d;
+        public static final int replay_session_fast=0x7f06001e;
         public static final int secure_connect_scan=0x7f060016;
+        public static final int show_metrics=0x7f060020;
         public static final int text=0x7f060008;
         public static final int title_left_text=0x7f060000;
+        public static final int trace_latency=0x7f060022;
         public static final int title_new_devices=0x7f060004;
         public static final int title_paired_devices=0x7f060002;
         public static final int title_right_text=0x7f060001;
@@ -65,19 +76,36 @@ public final class R {
         public static final int option_menu=0x7f050000;
     }
     public static final class string {
+        public static final int adaptive_rate=0x7f040018;
         public static final int app_name=0x7f040000;
+        public static final int auto_reconnect=0x7f04002d;
         public static final int begin=0x7f040004;
         public static final int bt_not_enabled_leaving=0x7f04000a;
         public static final int button_scan=0x7f040014;
+        public static final int cancel=0x7f04001b;
         public static final int char_mode=0x7f040003;
         public static final int clean=0x7f040008;
         public static final int discoverable=0x7f040017;
+        public static final int dump_metrics=0x7f040027;
         public static final int hex_mode=0x7f040002;
         public static final int insecure_connect=0x7f040016;
+        public static final int metrics_dump_failed=0x7f040029;
+        public static final int metrics_dumped=0x7f040028;
         public static final int none_found=0x7f040011;
         public static final int none_paired=0x7f040010;
         public static final int not_connected=0x7f040009;
         public static final int open=0x7f040006;
+        public static final int pause=0x7f040019;
+        public static final int playback_done=0x7f04001d;
+        public static final int playback_stopped=0x7f04001e;
+        public static final int record_session=0x7f04001f;
+        public static final int recording_failed=0x7f040020;
+        public static final int recording_to=0x7f040021;
+        public static final int replay_done=0x7f040022;
+        public static final int replay_session=0x7f040023;
+        public static final int replay_session_fast=0x7f040024;
+        public static final int replay_stopped=0x7f040025;
+        public static final int resume=0x7f04001a;
         /**   DeviceListActivity 
          */
         public static final int scanning=0x7f04000e;
@@ -89,11 +117,17 @@ public final class R {
         /**   BluetoothChat 
          */
         public static final int setrate=0x7f040001;
+        public static final int show_metrics=0x7f040026;
         public static final int stop=0x7f040005;
         public static final int title_connected_to=0x7f04000c;
         public static final int title_connecting=0x7f04000b;
         public static final int title_not_connected=0x7f04000d;
         public static final int title_other_devices=0x7f040013;
+        public static final int title_playing=0x7f04001c;
         public static final int title_paired_devices=0x7f040012;
+        public static final int title_reconnecting=0x7f04002e;
+        public static final int trace_failed=0x7f04002c;
+        public static final int trace_latency=0x7f04002a;
+        public static final int trace_written=0x7f04002b;
     }
 }
@@ -0,0 +1,90 @@
+package com.example.android.BluetoothChat;
+
+/**
+ * Picks the send period from what the link is doing, using additive
+ * increase / multiplicative decrease on the send rate. Each update
+ * either raises the rate by a fixed step or, when the link shows it is
+ * falling behind, halves it. The link is behind when more frames are
+ * still queued from earlier ticks than one tick sends, when a queued
+ * frame was replaced by a newer one for its channel before it could be
+ * sent, or when writes take longer than the period itself. The rate settles just under the highest rate the
+ * current phone and toy can sustain, and drops quickly when
+ * interference cuts throughput.
+ */
+public class AdaptiveRateController {
+    private static final double MIN_RATE = 1;         // ticks per second
+    private static final double MAX_RATE = 100;
+    private static final double RATE_INCREASE = 0.5;  // per update
+    private static final double RATE_DECREASE = 0.5;  // factor when congested
+
+    private final int mCongestedDepth;
+    private double mRate;
+    private long mLastCoalesced = -1;
+
+    // Statistics
+    private long mIncreases;
+    private long mDecreases;
+
+    /**
+     * Constructor.
+     * @param periodMillis    Period to start from
+     * @param congestedDepth  Frames left queued from earlier ticks that mean
+     *                        the link is behind; more than one tick sends
+     */
+    public AdaptiveRateController(int periodMillis, int congestedDepth) {
+        mCongestedDepth = congestedDepth;
+        setPeriod(periodMillis);
+    }
+
+    /**
+     * Restart from the given period.
+     */
+    public synchronized void setPeriod(int millis) {
+        mRate = clamp(1000.0 / Math.max(1, millis));
+    }
+
+    /**
+     * Feed one observation of the link, normally once per tick.
+     * @param writeLatency  Recent time to complete a write, in nanoseconds
+     * @param backlog       Frames still queued from earlier ticks, read
+     *                      before this tick queued its own
+     * @param coalesced     Total of queued frames replaced by a newer frame
+     *                      for their channel, as FrameRingBuffer counts them
+     * @return The period to use from now on, in milliseconds
+     */
+    public synchronized int update(long writeLatency, int backlog, long coalesced) {
+        long period = (long) (1000000000L / mRate);
+        // A replaced frame is a whole tick the link did not get to
+        boolean replaced = mLastCoalesced >= 0 && coalesced > mLastCoalesced;
+        mLastCoalesced = coalesced;
+        if (backlog >= mCongestedDepth || replaced || writeLatency > period) {
+            mRate = clamp(mRate * RATE_DECREASE);
+            mDecreases++;
+        } else {
+            mRate = clamp(mRate + RATE_INCREASE);
+            mIncreases++;
+        }
+        return getPeriod();
+    }
+
+    /**
+     * Return the current period in milliseconds.
+     */
+    public synchronized int getPeriod() {
+        return (int) Math.round(1000 / mRate);
+    }
+
+    /** Number of updates that raised the rate */
+    public synchronized long getIncreaseCount() {
+        return mIncreases;
+    }
+
+    /** Number of updates that cut the rate */
+    public synchronized long getDecreaseCount() {
+        return mDecreases;
+    }
+
+    private static double clamp(double rate) {
+        return Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+    }
+}
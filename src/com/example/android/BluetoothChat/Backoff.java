@@ -0,0 +1,60 @@
+package com.example.android.BluetoothChat;
+
+import java.util.Random;
+
+/**
+ * Delays between reconnection attempts. The delay range doubles after
+ * every failed attempt, from the initial delay up to the maximum, and each
+ * delay is drawn at random from the upper half of the range, so that
+ * phones retrying the same toy do not stay in step.
+ */
+public class Backoff {
+    public static final long INITIAL_DELAY_MS = 250;
+    public static final long MAX_DELAY_MS = 8000;
+
+    private final long mInitialDelay;
+    private final long mMaxDelay;
+    private final Random mRandom;
+    private int mAttempts = 0;
+
+    public Backoff() {
+        this(INITIAL_DELAY_MS, MAX_DELAY_MS, new Random());
+    }
+
+    /**
+     * Constructor.
+     * @param initialMillis  Longest delay before the first attempt
+     * @param maxMillis      Longest delay before any attempt
+     * @param random         Source of the jitter
+     */
+    public Backoff(long initialMillis, long maxMillis, Random random) {
+        mInitialDelay = initialMillis;
+        mMaxDelay = maxMillis;
+        mRandom = random;
+    }
+
+    /**
+     * Return the delay before the next attempt, in milliseconds, and count
+     * the attempt.
+     */
+    public synchronized long nextDelay() {
+        long range = Math.min(mMaxDelay, mInitialDelay << Math.min(mAttempts, 30));
+        mAttempts++;
+        long half = range / 2;
+        return half + (long) (mRandom.nextDouble() * (range - half));
+    }
+
+    /**
+     * Start over from the initial delay, after a successful connection.
+     */
+    public synchronized void reset() {
+        mAttempts = 0;
+    }
+
+    /**
+     * Return the number of attempts since the last reset.
+     */
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+}
@@ -17,15 +17,24 @@
 package com.example.android.BluetoothChat;
 
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Intent;
 import android.hardware.Sensor;
-import android.hardware.SensorListener;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -36,33 +45,28 @@ import android.view.View;
 import android.view.Window;
 import android.view.View.OnClickListener;
 import android.view.inputmethod.EditorInfo;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * This is the main Activity that displays the current chat session.
  */
-public class BluetoothChat extends Activity implements SensorListener{
+public class BluetoothChat extends Activity implements SensorEventListener{
     // Debugging
     private static final String TAG = "BluetoothChat";
     private static final boolean D = true;
 
     // Message types sent from the BluetoothChatService Handler
     public static final int MESSAGE_STATE_CHANGE = 1;
-    public static final int MESSAGE_READ = 2;
-    public static final int MESSAGE_WRITE = 3;
     public static final int MESSAGE_DEVICE_NAME = 4;
     public static final int MESSAGE_TOAST = 5;
+    public static final int MESSAGE_ECHO = 6;
+    public static final int MESSAGE_PLAYBACK_PROGRESS = 7;
+    public static final int MESSAGE_PLAYBACK_DONE = 8;
+    public static final int MESSAGE_REPLAY_DONE = 9;
 
     // Key names received from the BluetoothChatService Handler
     public static final String DEVICE_NAME = "device_name";
@@ -73,9 +77,12 @@ public class BluetoothChat extends Activity implements SensorListener{
     private static final int REQUEST_CONNECT_DEVICE_INSECURE = 2;
     private static final int REQUEST_ENABLE_BT = 3;
     private static final int REQUEST_OPEN_FILE = 4;
+    private static final int REQUEST_REPLAY_SESSION = 5;
+    private static final int REQUEST_REPLAY_SESSION_FAST = 6;
 
     // Layout Views
     private ListView mConversationView;
+    private TextView mMetricsView;
     private EditText mOutEditText;
     private Button mSendButton;
    
@@ -86,12 +93,16 @@ public class BluetoothChat extends Activity implements SensorListener{
     private Button mOpenButton;
     private Button mCleanButton;
     private Button mSetrateButton;
+    private Button mPauseButton;
+    private Button mCancelButton;
 
 
     // Name of the connected device
     private String mConnectedDeviceName = null;
-    // Array adapter for the conversation thread
-    private ArrayAdapter<String> mConversationArrayAdapter;
+    // Bounded history of sent and received bytes, and its list adapter
+    private static final int CONVERSATION_CAPACITY = 500;
+    private ConversationLog mConversationLog;
+    private ConversationAdapter mConversationAdapter;
     // String buffer for outgoing messages
     private StringBuffer mOutStringBuffer;
     // Local Bluetooth adapter
@@ -100,22 +111,53 @@ public class BluetoothChat extends Activity implements SensorListener{
     private BluetoothService mChatService = null;
     
     //data for send ToyData;
-    private int mSpeed = 10;   // 10 degree/s
     private final int mChanNum = 3;
-    private int mSendDuration = 1000; // 1 times per second
-    private long lastUpdate;
-    private int mStop = 1;
+    private volatile int mSendDuration = 1000; // 1 times per second
     private final int mRandomDuration = 500000; //2 times per second
     private long lastRandTime;
+    // Sensor to frame conversion, fed on the sensor thread
+    private volatile TiltPipeline mTiltPipeline = null;
+    // Sends the latest frames every mSendDuration while started
+    private TransmitScheduler mTransmitScheduler = null;
+    // Plays script files opened through MyFileManager
+    private static final int SCRIPT_FRAME_DELAY_MS = 10;
+    private ScriptPlayer mScriptPlayer = null;
+    // Sets mSendDuration from the link's throughput when enabled
+    private AdaptiveRateController mRateController = null;
+    private volatile boolean mAdaptiveRate = false;
+    // Records sessions to external storage and replays their sensor samples
+    private static final int SESSION_BUFFER_BYTES = 64 * 1024;
+    private static final String SESSION_DIRECTORY = "BluetoothChat";
+    private SessionRecorder mSessionRecorder = null;
+    private SessionReplayer mSessionReplayer = null;
+    // Times each stage from sample to socket write while enabled
+    private static final int TRACE_CAPACITY = 4096;
+    private final LatencyTrace mLatencyTrace = new LatencyTrace(TRACE_CAPACITY);
+    // Shows mChatService's metrics once a second while enabled
+    private static final long METRICS_REFRESH_MS = 1000;
+    private final StringBuilder mMetricsText = new StringBuilder();
+    private final Runnable mMetricsRefresh = new Runnable() {
+        public void run() {
+            refreshMetrics();
+        }
+    };
+    // Sensor path metrics, registered once the service exists
+    private volatile MetricsRegistry.Counter mSensorSamples = null;
+    private volatile MetricsRegistry.Histogram mSampleTime = null;
     
     
     private SensorManager mSensorManager;
     private Sensor mSensor;
+    // Sensor callbacks are delivered here instead of the main looper
+    private HandlerThread mSensorThread;
+    private Handler mSensorHandler;
+    // Between onResume() and onPause(); the live sensor is off outside it
+    private boolean mResumed = false;
     
     private int mShowMode = mHexMode; 
     
-    private static final int mCharMode = 0;
-    private static final int mHexMode = 1;
+    private static final int mCharMode = ConversationAdapter.MODE_CHAR;
+    private static final int mHexMode = ConversationAdapter.MODE_HEX;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -150,6 +192,21 @@ public class BluetoothChat extends Activity implements SensorListener{
             finish();
             return;             
         }
+
+        mSensorThread = new HandlerThread("SensorThread");
+        mSensorThread.start();
+        mSensorHandler = new Handler(mSensorThread.getLooper());
+
+        mSessionRecorder = new SessionRecorder(SESSION_BUFFER_BYTES);
+        mSessionReplayer = new SessionReplayer(new SessionReplayer.Listener() {
+            public void onSample(float x, float y, float z, long timestamp) {
+                processSample(x, y, z, timestamp);
+            }
+            public void onFinished(boolean completed) {
+                mHandler.obtainMessage(MESSAGE_REPLAY_DONE, completed ? 1 : 0, -1)
+                        .sendToTarget();
+            }
+        });
     }
 
     @Override
@@ -166,10 +223,6 @@ public class BluetoothChat extends Activity implements SensorListener{
         } else {
             if (mChatService == null) setupChat();
         }
-        
-        mSensorManager.registerListener(this, 
-                                        SensorManager.SENSOR_ACCELEROMETER,
-                                        SensorManager.SENSOR_DELAY_GAME);
     }
 
     @Override
@@ -187,18 +240,42 @@ public class BluetoothChat extends Activity implements SensorListener{
               mChatService.start();
             }
         }
-        mSensorManager.registerListener(this, 
-                                        SensorManager.SENSOR_ACCELEROMETER,
-                                        SensorManager.SENSOR_DELAY_GAME);
+        mResumed = true;
+        // Registered only while resumed and not replaying; unregistered in onPause()
+        if (!mSessionReplayer.isPlaying()) registerSensor();
+    }
+
+    private void registerSensor() {
+        mSensorManager.registerListener(this, mSensor,
+                                        SensorManager.SENSOR_DELAY_GAME,
+                                        mSensorHandler);
+    }
+
+    /**
+     * Replay a recording in place of the live sensor. The live listener is
+     * unregistered on the sensor thread before the replay starts, so no
+     * live sample is still in the pipeline when recorded ones begin; it is
+     * registered again when the replay ends.
+     */
+    private void startReplay(final String path, final boolean realTime) {
+        mSensorHandler.post(new Runnable() {
+            public void run() {
+                mSensorManager.unregisterListener(BluetoothChat.this);
+                mSessionReplayer.play(path, realTime);
+            }
+        });
     }
 
     private void setupChat() {
         Log.d(TAG, "setupChat()");
 
-        // Initialize the array adapter for the conversation thread
-        mConversationArrayAdapter = new ArrayAdapter<String>(this, R.layout.message);
+        // Initialize the adapter for the conversation thread
+        mConversationLog = new ConversationLog(CONVERSATION_CAPACITY);
+        mConversationAdapter = new ConversationAdapter(this, mConversationLog);
+        mConversationAdapter.setShowMode(mShowMode);
         mConversationView = (ListView) findViewById(R.id.in);
-        mConversationView.setAdapter(mConversationArrayAdapter);
+        mMetricsView = (TextView) findViewById(R.id.metrics_overlay);
+        mConversationView.setAdapter(mConversationAdapter);
 
         // Initialize the compose field with a listener for the return key
         mOutEditText = (EditText) findViewById(R.id.edit_text_out);
@@ -213,14 +290,16 @@ public class BluetoothChat extends Activity implements SensorListener{
                 String message = view.getText().toString();
                 
                 String [] msgs = message.split(";");
+                byte [][] frames = new byte[msgs.length][];
                 for (int i=0; i < msgs.length; i++) {
                    // if (isHex(msgs[i])) {
-                        sendBytes(stringToHex(msgs[i]));
+                        frames[i] = stringToHex(msgs[i]);
                    // } else {
                     //    sendMessage(msgs[i]);
                     //}
                         
                 }
+                sendBatch(frames);
                 
             }
         });
@@ -231,7 +310,20 @@ public class BluetoothChat extends Activity implements SensorListener{
             public void onClick(View v) {
                 TextView view = (TextView) findViewById(R.id.edit_text_rate);
                 String rateString = view.getText().toString();
-                mSendDuration = Integer.parseInt(rateString);
+                int period;
+                try {
+                    period = Integer.parseInt(rateString.trim());
+                } catch (NumberFormatException e) {
+                    period = 0;
+                }
+                if (period <= 0) {
+                    Log.w(TAG, "ignoring send period \"" + rateString + "\"");
+                    return;
+                }
+                mSendDuration = period;
+                // A rate set by hand turns the adaptive mode off
+                mAdaptiveRate = false;
+                mTransmitScheduler.setPeriod(mSendDuration);
                 
                 
             }
@@ -242,6 +334,7 @@ public class BluetoothChat extends Activity implements SensorListener{
         mHexModeButton.setOnClickListener(new OnClickListener() {
             public void onClick(View v) {
                 mShowMode = mHexMode;
+                mConversationAdapter.setShowMode(mShowMode);
             }
         });
         
@@ -249,27 +342,34 @@ public class BluetoothChat extends Activity implements SensorListener{
         mCharModeButton.setOnClickListener(new OnClickListener() {
             public void onClick(View v) {
                 mShowMode = mCharMode;
+                mConversationAdapter.setShowMode(mShowMode);
             }
         });
         
         mCleanButton = (Button) findViewById(R.id.button_clean); 
         mCleanButton.setOnClickListener(new OnClickListener() {
             public void onClick(View v) {
-                mConversationArrayAdapter.clear();
+                mConversationAdapter.clear();
             }
         });
         
         mStopButton = (Button) findViewById(R.id.button_stop);  
         mStopButton.setOnClickListener(new OnClickListener() {
             public void onClick(View v) {
-                mStop = 1;
+                mTransmitScheduler.stop();
+                if(D) Log.i(TAG, "transmit ticks " + mTransmitScheduler.getTickCount()
+                        + ", missed " + mTransmitScheduler.getMissedTickCount()
+                        + ", lateness mean/max/sd us "
+                        + mTransmitScheduler.getMeanLateness() / 1000 + "/"
+                        + mTransmitScheduler.getMaxLateness() / 1000 + "/"
+                        + mTransmitScheduler.getLatenessDeviation() / 1000);
             }
         });
         
         mBeginButton = (Button) findViewById(R.id.button_begin);  
         mBeginButton.setOnClickListener(new OnClickListener() {
             public void onClick(View v) {
-                mStop = 0;
+                mTransmitScheduler.start();
             }
         });
         
@@ -284,36 +384,110 @@ public class BluetoothChat extends Activity implements SensorListener{
         
        // mOpenButton = (Button) fineViewById(R.id.button_open);
         
+        mPauseButton = (Button) findViewById(R.id.button_pause);
+        mPauseButton.setOnClickListener(new OnClickListener() {
+            public void onClick(View v) {
+                if (mScriptPlayer.isPaused()) {
+                    mScriptPlayer.resume();
+                    mPauseButton.setText(R.string.pause);
+                } else if (mScriptPlayer.isPlaying()) {
+                    mScriptPlayer.pause();
+                    mPauseButton.setText(R.string.resume);
+                }
+            }
+        });
+        
+        mCancelButton = (Button) findViewById(R.id.button_cancel);
+        mCancelButton.setOnClickListener(new OnClickListener() {
+            public void onClick(View v) {
+                mScriptPlayer.cancel();
+            }
+        });
+        
 
         // Initialize the BluetoothChatService to perform bluetooth connections
         mChatService = new BluetoothService(this, mHandler);
+        mChatService.setSessionRecorder(mSessionRecorder);
+        mChatService.setLatencyTrace(mLatencyTrace);
+        MetricsRegistry metrics = mChatService.getMetrics();
+        mSensorSamples = metrics.counter("sensor_samples");
+        mSampleTime = metrics.histogram("sample_processing");
+        final TiltPipeline pipeline = new TiltPipeline(mChatService);
+        pipeline.setTrace(mLatencyTrace);
+        mTiltPipeline = pipeline;
+        // One tick queues up to a frame per channel; more left over is a backlog
+        mRateController = new AdaptiveRateController(mSendDuration, TiltPipeline.CHANNELS + 1);
+        mTransmitScheduler = new TransmitScheduler(new Runnable() {
+            public void run() {
+                // A playing script has the link to itself: sensor frames
+                // would evict its queued frames to make room
+                ScriptPlayer player = mScriptPlayer;
+                if (player != null && player.isPlaying()) return;
+                int state = mChatService.getState();
+                if (state == BluetoothService.STATE_CONNECTED) {
+                    // Read before this tick's own frames join the queue
+                    int backlog = mChatService.getQueueDepth();
+                    pipeline.tick(System.nanoTime());
+                    if (mAdaptiveRate) adaptSendRate(backlog);
+                } else if (state == BluetoothService.STATE_RECONNECTING) {
+                    // Keeps the queued pose current for when the link returns
+                    pipeline.tick(System.nanoTime());
+                }
+            }
+        }, mSendDuration);
+
+        mScriptPlayer = new ScriptPlayer(mChatService, new ScriptPlayer.Listener() {
+            public void onProgress(int percent) {
+                mHandler.obtainMessage(MESSAGE_PLAYBACK_PROGRESS, percent, -1).sendToTarget();
+            }
+            public void onFinished(boolean completed) {
+                mHandler.obtainMessage(MESSAGE_PLAYBACK_DONE, completed ? 1 : 0, -1)
+                        .sendToTarget();
+            }
+        }, SCRIPT_FRAME_DELAY_MS, getCacheDir());
 
         // Initialize the buffer for outgoing messages
         mOutStringBuffer = new StringBuffer("");
     }
 
+    // Called on the scheduler thread after each tick in adaptive mode
+    private void adaptSendRate(int backlog) {
+        int period = mRateController.update(mChatService.getWriteLatency(), backlog,
+                                            mChatService.getCoalescedCount());
+        if (period != mSendDuration) {
+            mSendDuration = period;
+            mTransmitScheduler.setPeriod(period);
+        }
+    }
+
     @Override
     public synchronized void onPause() {
         super.onPause();
         if(D) Log.e(TAG, "- ON PAUSE -");
+        
+        mResumed = false;
+        mSensorManager.unregisterListener(this);
     }
 
     @Override
     public void onStop() {
         super.onStop();
         if(D) Log.e(TAG, "-- ON STOP --");
-        
-        mSensorManager.unregisterListener(this);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         // Stop the Bluetooth chat services
+        if (mTransmitScheduler != null) mTransmitScheduler.stop();
+        if (mScriptPlayer != null) mScriptPlayer.cancel();
+        if (mSessionReplayer != null) mSessionReplayer.cancel();
+        if (mSessionRecorder != null) mSessionRecorder.stop();
+        mHandler.removeCallbacks(mMetricsRefresh);
         if (mChatService != null) mChatService.stop();
         if(D) Log.e(TAG, "--- ON DESTROY ---");
         
-        mSensorManager.unregisterListener(this);
+        if (mSensorThread != null) mSensorThread.quit();
     }
 
     private void ensureDiscoverable() {
@@ -383,39 +557,50 @@ public class BluetoothChat extends Activity implements SensorListener{
                 switch (msg.arg1) {
                 case BluetoothService.STATE_CONNECTED:
                     setStatus(getString(R.string.title_connected_to, mConnectedDeviceName));
-                    mConversationArrayAdapter.clear();
+                    mConversationAdapter.clear();
+                    // Send every channel in full to the new connection
+                    mTiltPipeline.reset();
                     break;
                 case BluetoothService.STATE_CONNECTING:
                     setStatus(R.string.title_connecting);
                     break;
+                case BluetoothService.STATE_RECONNECTING:
+                    setStatus(R.string.title_reconnecting);
+                    break;
                 case BluetoothService.STATE_LISTEN:
                 case BluetoothService.STATE_NONE:
                     setStatus(R.string.title_not_connected);
                     break;
                 }
                 break;
-            case MESSAGE_WRITE:
-                byte[] writeBuf = (byte[]) msg.obj;
-                // construct a string from the buffer
-                String writeMessage;
-                if (mShowMode == mHexMode) {
-                    writeMessage = toHexString(writeBuf);               
-                }
-                else {
-                    writeMessage = new String(writeBuf);
-                }
-
-                mConversationArrayAdapter.add("Me:  " + writeMessage);
+            case MESSAGE_ECHO:
+                // move everything sent and received since the last refresh
+                // into the log; the adapter formats visible rows
+                mChatService.getEchoBuffer().drainTo(mConversationLog);
+                mConversationAdapter.notifyDataSetChanged();
                 break;
-            case MESSAGE_READ:
-                byte[] readBuf = (byte[]) msg.obj;
-                // construct a string from the valid bytes in the buffer
-                String readMessage = new String(readBuf, 0, msg.arg1);
-                mConversationArrayAdapter.add(mConnectedDeviceName+":  " + readMessage);
+            case MESSAGE_PLAYBACK_PROGRESS:
+                setTitle(getString(R.string.title_playing, msg.arg1));
+                break;
+            case MESSAGE_PLAYBACK_DONE:
+                setTitle(R.string.app_name);
+                // Bring the toy back to the phone's pose on every channel
+                mTiltPipeline.reset();
+                mPauseButton.setText(R.string.pause);
+                Toast.makeText(getApplicationContext(), msg.arg1 == 1
+                               ? R.string.playback_done : R.string.playback_stopped,
+                               Toast.LENGTH_SHORT).show();
+                break;
+            case MESSAGE_REPLAY_DONE:
+                if (mResumed && !mSessionReplayer.isPlaying()) registerSensor();
+                Toast.makeText(getApplicationContext(), msg.arg1 == 1
+                               ? R.string.replay_done : R.string.replay_stopped,
+                               Toast.LENGTH_SHORT).show();
                 break;
             case MESSAGE_DEVICE_NAME:
                 // save the connected device's name
                 mConnectedDeviceName = msg.getData().getString(DEVICE_NAME);
+                mConversationAdapter.setDeviceName(mConnectedDeviceName);
                 Toast.makeText(getApplicationContext(), "Connected to "
                                + mConnectedDeviceName, Toast.LENGTH_SHORT).show();
                 break;
@@ -458,10 +643,18 @@ public class BluetoothChat extends Activity implements SensorListener{
             if (resultCode == Activity.RESULT_OK) {
                 Bundle bundle = null;
                 if (data != null && (bundle=data.getExtras())!=null) {
-                    sendFile(bundle.getString("file"));
+                    mScriptPlayer.play(bundle.getString("file"));
                     //mOutEditText.setText(bundle.getString("file"));
                 }
             }
+            break;
+        case REQUEST_REPLAY_SESSION:
+        case REQUEST_REPLAY_SESSION_FAST:
+            // When a recording to replay was chosen
+            if (resultCode == Activity.RESULT_OK && data != null && data.getExtras() != null) {
+                startReplay(data.getExtras().getString("file"),
+                        requestCode == REQUEST_REPLAY_SESSION);
+            }
         }
     }
 
@@ -482,6 +675,13 @@ public class BluetoothChat extends Activity implements SensorListener{
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // A rate set by hand turns the adaptive mode off behind the menu's back
+        menu.findItem(R.id.adaptive_rate).setChecked(mAdaptiveRate);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         Intent serverIntent = null;
@@ -500,88 +700,170 @@ public class BluetoothChat extends Activity implements SensorListener{
             // Ensure this device is discoverable by others
             ensureDiscoverable();
             return true;
+        case R.id.auto_reconnect:
+            // Retry a lost device instead of falling back to listening
+            mChatService.setAutoReconnect(!item.isChecked());
+            item.setChecked(mChatService.isAutoReconnect());
+            return true;
+        case R.id.adaptive_rate:
+            // Let the measured link throughput drive the send rate
+            mAdaptiveRate = !mAdaptiveRate;
+            item.setChecked(mAdaptiveRate);
+            if (mAdaptiveRate) mRateController.setPeriod(mSendDuration);
+            return true;
+        case R.id.record_session:
+            // Start or stop recording sensor samples and frames
+            if (item.isChecked()) {
+                stopRecording();
+            } else {
+                startRecording();
+            }
+            item.setChecked(mSessionRecorder.isRecording());
+            return true;
+        case R.id.replay_session:
+            // Choose a recording to feed back through the sensor path
+            startActivityForResult(new Intent(this, MyFileManager.class),
+                    REQUEST_REPLAY_SESSION);
+            return true;
+        case R.id.replay_session_fast:
+            startActivityForResult(new Intent(this, MyFileManager.class),
+                    REQUEST_REPLAY_SESSION_FAST);
+            return true;
+        case R.id.show_metrics:
+            // Show or hide the metrics overlay
+            item.setChecked(!item.isChecked());
+            mHandler.removeCallbacks(mMetricsRefresh);
+            mMetricsView.setVisibility(item.isChecked() ? View.VISIBLE : View.GONE);
+            refreshMetrics();
+            return true;
+        case R.id.dump_metrics:
+            if (mChatService != null) dumpMetrics();
+            return true;
+        case R.id.trace_latency:
+            // Start tracing, or stop and write out what was traced
+            if (item.isChecked()) {
+                mLatencyTrace.setEnabled(false);
+                exportTrace();
+            } else {
+                mLatencyTrace.clear();
+                mLatencyTrace.setEnabled(true);
+            }
+            item.setChecked(mLatencyTrace.isEnabled());
+            return true;
         }
         return false;
     }
     
-    public void onSensorChanged(int arg0, float[] values) {
-        if (mChatService == null) {
+    // Called on mSensorThread
+    public void onSensorChanged(SensorEvent event) {
+        // A replay stands in for the sensor while it runs; only an event
+        // already queued when the listener was unregistered gets here
+        if (mSessionReplayer.isPlaying()) {
             return;
         }
-        
-        if (mChatService.getState() != BluetoothService.STATE_CONNECTED) {
+
+        float[] values = event.values;
+        mSessionRecorder.recordSample(values[0], values[1], values[2], event.timestamp);
+        processSample(values[0], values[1], values[2], event.timestamp);
+    }
+
+    // Called on mSensorThread for live samples and on the replay thread for
+    // recorded ones, never both at once
+    private void processSample(float x, float y, float z, long timestamp) {
+        TiltPipeline pipeline = mTiltPipeline;
+        if (pipeline == null) {
             return;
         }
         
-        if (mStop == 1) {
-            return;
+        // Only updates the latest angles; mTransmitScheduler sends them
+        long start = System.nanoTime();
+        pipeline.onSample(x, y, z, timestamp);
+        MetricsRegistry.Histogram sampleTime = mSampleTime;
+        if (sampleTime != null) {
+            sampleTime.record(System.nanoTime() - start);
+            mSensorSamples.increment();
         }
-        //throw new UnsupportedOperationException("Not supported yet.");
-        long curTime = System.currentTimeMillis();
-        
-        
-        if (curTime - lastUpdate < mSendDuration)
-            return;
-        lastUpdate = curTime;
-        ToyData data = new ToyData();
-        double diagLen = Math.sqrt(values[0] * values[0] + 
-                                  values[1] * values[1] +
-                                  values[2] * values[2]);
-        double xangle,yangle,zangle;
-        int randAngle1,randAngle2;
-        double yConvertAngle, zConvertAngle;
- 
-       
-        xangle = Math.acos((values[0])/diagLen); // xangle is used to determine which
-                                                 // direction y axis turns,
-                                                 // left(<0) or right(>0)
-        yangle = Math.acos(Math.abs(values[1])/diagLen); 
-        yConvertAngle = Math.PI/2 + (xangle>Math.PI/2?-1:1)*yangle; 
-        
-        zangle = Math.acos((values[2])/diagLen);
-        zConvertAngle = zangle;
-        
-        randAngle1 = 60+(int)((Math.random()*60));
-        randAngle2 = 60+(int)((Math.random()*60));
-        
-       
-        
-        
-        
-        data.setAngle(convertAngle(yConvertAngle));
-        data.setSpeed(mSpeed);
-        data.setChannel(0);
-        sendBytes(data.getData());
-        
-        data.setAngle(convertAngle(zConvertAngle));
-        data.setSpeed(mSpeed);
-        data.setChannel(1);
-        sendBytes(data.getData());
-        
-        data.setAngle(randAngle1);
-        data.setSpeed(mSpeed);
-        data.setChannel(2);
-        sendBytes(data.getData());
-        
-        data.setAngle(randAngle2);
-        data.setSpeed(mSpeed);
-        data.setChannel(3);
-        sendBytes(data.getData());       
-        
-        
-        
-        
-        
-        
-        
-        
     }
 
-    public void onAccuracyChanged(int arg0, int arg1) {
+    /**
+     * Return a new file in the app's directory on external storage, named
+     * after the current time.
+     */
+    private File newOutputFile(String prefix, String suffix) {
+        File directory = new File(Environment.getExternalStorageDirectory(), SESSION_DIRECTORY);
+        directory.mkdirs();
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        return new File(directory, prefix + time + suffix);
+    }
+
+    private void startRecording() {
+        File file = newOutputFile("session-", ".rec");
+        try {
+            mSessionRecorder.start(file);
+            Toast.makeText(this, getString(R.string.recording_to, file.getPath()),
+                           Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "cannot record to " + file, e);
+            Toast.makeText(this, R.string.recording_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void refreshMetrics() {
+        if (mChatService == null || mMetricsView.getVisibility() != View.VISIBLE) return;
+        mChatService.updateMetrics();
+        mMetricsText.setLength(0);
+        mChatService.getMetrics().format(mMetricsText, false);
+        // Drop the last line break
+        mMetricsText.setLength(Math.max(0, mMetricsText.length() - 1));
+        mMetricsView.setText(mMetricsText);
+        mHandler.postDelayed(mMetricsRefresh, METRICS_REFRESH_MS);
+    }
+
+    private void dumpMetrics() {
+        File file = newOutputFile("metrics-", ".txt");
+        try {
+            mChatService.updateMetrics();
+            mChatService.getMetrics().dump(file);
+            Toast.makeText(this, getString(R.string.metrics_dumped, file.getPath()),
+                           Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "cannot write " + file, e);
+            Toast.makeText(this, R.string.metrics_dump_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void exportTrace() {
+        File file = newOutputFile("trace-", ".json");
+        String path = file.getPath();
+        String base = path.substring(0, path.length() - ".json".length());
+        try {
+            mLatencyTrace.exportJson(file);
+            mLatencyTrace.exportBinary(new File(base + ".bin"));
+            FileWriter out = new FileWriter(base + ".txt");
+            try {
+                out.write(mLatencyTrace.formatHistograms(new StringBuilder()).toString());
+            } finally {
+                out.close();
+            }
+            Toast.makeText(this, getString(R.string.trace_written, path),
+                           Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "cannot write " + file, e);
+            Toast.makeText(this, R.string.trace_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void stopRecording() {
+        mSessionRecorder.stop();
+        long dropped = mSessionRecorder.getDroppedCount();
+        if (dropped > 0) Log.w(TAG, "session recording dropped " + dropped + " records");
+    }
+
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
         //throw new UnsupportedOperationException("Not supported yet.");
     }
     
-    private void sendBytes(byte[] send) {
+    private void sendBatch(byte[][] frames) {
         // Check that we're actually connected before trying anything
         if (mChatService.getState() != BluetoothService.STATE_CONNECTED) {
             Toast.makeText(this, R.string.not_connected, Toast.LENGTH_SHORT).show();
@@ -589,77 +871,25 @@ public class BluetoothChat extends Activity implements SensorListener{
         }
 
         // Check that there's actually something to send
-        if (send.toString().length() > 0) {
-            // Get the message bytes and tell the BluetoothChatService to write
-            mChatService.write(send);
+        if (frames.length > 0) {
+            // Tell the BluetoothChatService to write all frames at once
+            mChatService.writeBatch(frames);
 
             // Reset out string buffer to zero and clear the edit text field
             mOutStringBuffer.setLength(0);
             mOutEditText.setText(mOutStringBuffer);
         }
-       
-    }  
-    
-    
-    private String toHexString(byte [] bytes) {
-        String result = new String();
-        for (int i=0; i < bytes.length; i++) {
-            result = result.concat(Integer.toHexString((bytes[i]>>4) & 0x0F));
-            result = result.concat(Integer.toHexString(bytes[i] & 0x0F));            
-        }
-        
-        return result;
     }
     
-    private void sendFile(String file) {
-        FileReader reader;
-        try {
-            reader = new FileReader(file);
-
-            BufferedReader br = new BufferedReader(reader);
-            String s = null;
-            try {
-                while ((s = br.readLine()) != null) {
-                    String [] msgs = s.split(";");
-                    for (int i=0; i < msgs.length; i++) {
-                        sendBytes(stringToHex(msgs[i]));    
-                    }
-                }
-                br.close();
-                reader.close();
-            } catch (IOException ex) {
-                Logger.getLogger(BluetoothChat.class.getName()).log(Level.SEVERE, null, ex);
-            }
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(BluetoothChat.class.getName()).log(Level.SEVERE, null, ex);
-        }
-    }
-        
     public static byte [] stringToHex(String s){
-        if ("0x".equals(s.substring(0, 2)))
-        {
-            s = s.substring(2);
-        }
-        else {
-            return s.getBytes();
-        }
-        
-        byte[] baKeyword = new byte [s.length()/2];
-        for(int i=0; i < baKeyword.length; i++){
-            try {
-                baKeyword[i] = (byte)(0xff & Integer.parseInt(s.substring(i*2, i*2+2),16));
-                
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
+        byte[] baKeyword = new byte[HexCodec.entryLength(s)];
+        int result = HexCodec.parseEntry(s, baKeyword, 0);
+        if (result < 0) {
+            // Send nothing rather than a frame with a corrupt byte
+            Log.w(TAG, "invalid hex digit at offset "
+                    + HexCodec.errorOffset(result) + " of \"" + s + "\"");
+            return new byte[0];
         }
         return baKeyword;
     }
-// translate the angle from radian to degree
-// and tranform the angle rangle to Pi/4 -- 3Pi/4
-    public int convertAngle(double angle) {
-        return (int) (( Math.PI/3 + (angle/3))*180/Math.PI);
-    }
-
 }
@@ -17,8 +17,6 @@
 package com.example.android.BluetoothChat;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.UUID;
 
 import android.bluetooth.BluetoothAdapter;
@@ -29,16 +27,15 @@ import android.content.Context;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.os.SystemClock;
 import android.util.Log;
 
 /**
  * This class does all the work for setting up and managing Bluetooth
  * connections with other devices. It has a thread that listens for
  * incoming connections, a thread for connecting with a device, and a
- * thread for performing data transmissions when connected.
+ * TransportConnection for performing data transmissions when connected.
  */
-public class BluetoothService {
+public class BluetoothService implements FrameSink {
     // Debugging
     private static final String TAG = "BluetoothChatService";
     private static final boolean D = true;
@@ -61,14 +58,50 @@ public class BluetoothService {
     private AcceptThread mSecureAcceptThread;
     private AcceptThread mInsecureAcceptThread;
     private ConnectThread mConnectThread;
-    private ConnectedThread mConnectedThread;
+    private TransportConnection mConnection;
+    private ReconnectThread mReconnectThread;
     private int mState;
 
+    // Reconnects to the last device after a lost connection while enabled
+    private volatile boolean mAutoReconnect = false;
+    private BluetoothDevice mLastDevice;
+    private boolean mLastSecure;
+    private final Backoff mBackoff = new Backoff();
+    // Failed attempts in a row before giving the device up for lost
+    private static final int MAX_RECONNECT_ATTEMPTS = 10;
+
+    // Milliseconds between checks of the InputStream, or 0 to block in read()
+    private volatile int mReadPollInterval = 0;
+
+    // Runtime metrics, including the traffic's
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final MetricsRegistry.Counter mConnections = mMetrics.counter("connections");
+    private final MetricsRegistry.Counter mConnectionsLost = mMetrics.counter("connections_lost");
+    private final MetricsRegistry.Counter mConnectFailures = mMetrics.counter("connect_failures");
+    private final MetricsRegistry.Counter mReconnectAttempts = mMetrics.counter("reconnect_attempts");
+    private final MetricsRegistry.Counter mReconnects = mMetrics.counter("reconnects");
+
+    // Outbound queue and the bookkeeping for every read and write; the
+    // listener of each connection in turn
+    private final ConnectionTraffic mTraffic = new ConnectionTraffic(mMetrics,
+            new ConnectionTraffic.Callback() {
+        public void onEchoPending(long delayMillis) {
+            mHandler.sendEmptyMessageDelayed(BluetoothChat.MESSAGE_ECHO, delayMillis);
+        }
+
+        public void onLost(IOException e) {
+            Log.e(TAG, "disconnected", e);
+            connectionLost();
+        }
+    });
+    private final FrameRingBuffer mOutQueue = mTraffic.getQueue();
+
     // Constants that indicate the current connection state
     public static final int STATE_NONE = 0;       // we're doing nothing
     public static final int STATE_LISTEN = 1;     // now listening for incoming connections
     public static final int STATE_CONNECTING = 2; // now initiating an outgoing connection
     public static final int STATE_CONNECTED = 3;  // now connected to a remote device
+    public static final int STATE_RECONNECTING = 4; // retrying the last device after a lost connection
 
     /**
      * Constructor. Prepares a new BluetoothChat session.
@@ -106,10 +139,12 @@ public class BluetoothService {
         if (D) Log.d(TAG, "start");
 
         // Cancel any thread attempting to make a connection
+        if (mReconnectThread != null) {mReconnectThread.cancel(); mReconnectThread = null;}
         if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
 
         // Cancel any thread currently running a connection
-        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
+        if (mConnection != null) {mConnection.close(); mConnection = null;}
+        mOutQueue.clear();
 
         setState(STATE_LISTEN);
 
@@ -133,12 +168,16 @@ public class BluetoothService {
         if (D) Log.d(TAG, "connect to: " + device);
 
         // Cancel any thread attempting to make a connection
-        if (mState == STATE_CONNECTING) {
+        if (mReconnectThread != null) {mReconnectThread.cancel(); mReconnectThread = null;}
+        if (mState == STATE_CONNECTING || mState == STATE_RECONNECTING) {
             if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
         }
 
         // Cancel any thread currently running a connection
-        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
+        if (mConnection != null) {mConnection.close(); mConnection = null;}
+        // Frames kept for the previous device are not for this one
+        mOutQueue.clear();
+        mBackoff.reset();
 
         // Start the thread to connect with the given device
         mConnectThread = new ConnectThread(device, secure);
@@ -147,19 +186,37 @@ public class BluetoothService {
     }
 
     /**
-     * Start the ConnectedThread to begin managing a Bluetooth connection
+     * Start managing a Bluetooth connection
      * @param socket  The BluetoothSocket on which the connection was made
      * @param device  The BluetoothDevice that has been connected
      */
     public synchronized void connected(BluetoothSocket socket, BluetoothDevice
             device, final String socketType) {
-        if (D) Log.d(TAG, "connected, Socket Type:" + socketType);
+        connected(new RfcommTransport(socket, device), socketType);
+
+        // Remember the device to reconnect to if the link drops
+        mLastDevice = device;
+        mLastSecure = "Secure".equals(socketType);
+    }
+
+    /**
+     * Start a TransportConnection to manage a connection made over any
+     * transport, such as a TcpTransport to a toy stand-in.
+     * @param transport  The open transport
+     * @param type       Kind of connection, for logging
+     */
+    public synchronized void connected(Transport transport, String type) {
+        if (D) Log.d(TAG, "connected, Socket Type:" + type);
+
+        if (mState == STATE_RECONNECTING) mReconnects.increment();
+        mBackoff.reset();
+        mLastDevice = null;
 
         // Cancel the thread that completed the connection
         if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
 
         // Cancel any thread currently running a connection
-        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
+        if (mConnection != null) {mConnection.close(); mConnection = null;}
 
         // Cancel the accept thread because we only want to connect to one device
         if (mSecureAcceptThread != null) {
@@ -171,14 +228,17 @@ public class BluetoothService {
             mInsecureAcceptThread = null;
         }
 
-        // Start the thread to manage the connection and perform transmissions
-        mConnectedThread = new ConnectedThread(socket, socketType);
-        mConnectedThread.start();
+        // Start the threads to manage the connection and perform transmissions
+        mTraffic.reset();
+        mConnection = new TransportConnection(transport, mOutQueue, mTraffic);
+        mConnection.setReadPollInterval(mReadPollInterval);
+        mConnection.start();
+        mConnections.increment();
 
         // Send the name of the connected device back to the UI Activity
         Message msg = mHandler.obtainMessage(BluetoothChat.MESSAGE_DEVICE_NAME);
         Bundle bundle = new Bundle();
-        bundle.putString(BluetoothChat.DEVICE_NAME, device.getName());
+        bundle.putString(BluetoothChat.DEVICE_NAME, transport.getName());
         msg.setData(bundle);
         mHandler.sendMessage(msg);
 
@@ -191,14 +251,19 @@ public class BluetoothService {
     public synchronized void stop() {
         if (D) Log.d(TAG, "stop");
 
+        if (mReconnectThread != null) {
+            mReconnectThread.cancel();
+            mReconnectThread = null;
+        }
+
         if (mConnectThread != null) {
             mConnectThread.cancel();
             mConnectThread = null;
         }
 
-        if (mConnectedThread != null) {
-            mConnectedThread.cancel();
-            mConnectedThread = null;
+        if (mConnection != null) {
+            mConnection.close();
+            mConnection = null;
         }
 
         if (mSecureAcceptThread != null) {
@@ -210,34 +275,210 @@ public class BluetoothService {
             mInsecureAcceptThread.cancel();
             mInsecureAcceptThread = null;
         }
+        mOutQueue.clear();
         setState(STATE_NONE);
     }
 
     /**
-     * Write to the ConnectedThread in an unsynchronized manner
+     * Queue bytes for the writer thread. Returns immediately unless the
+     * overflow policy is FrameRingBuffer.POLICY_BLOCK and the queue is full.
      * @param out The bytes to write
-     * @see ConnectedThread#write(byte[])
+     * @see TransportConnection
      */
     public void write(byte[] out) {
-        // Create temporary object
-        ConnectedThread r;
-        // Synchronize a copy of the ConnectedThread
+        write(out, 0, out.length);
+    }
+
+    /**
+     * Queue part of a buffer for the writer thread. The bytes are copied,
+     * so the caller may reuse the buffer as soon as this returns.
+     * @param out     The buffer holding the bytes to write
+     * @param offset  Start of the bytes in the buffer
+     * @param length  Number of bytes to write
+     */
+    public void write(byte[] out, int offset, int length) {
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return;
+        }
+        mOutQueue.put(out, offset, length);
+    }
+
+    /**
+     * Queue part of a buffer for the writer thread, waiting for room in the
+     * queue whatever the overflow policy. For producers such as script
+     * playback that run on their own thread and must not lose data.
+     * @param out     The buffer holding the bytes to write
+     * @param offset  Start of the bytes in the buffer
+     * @param length  Number of bytes to write
+     * @return false if not connected, or if interrupted before all the
+     *         bytes were queued
+     */
+    public boolean writeBlocking(byte[] out, int offset, int length) {
+        synchronized (this) {
+            if (mState != STATE_CONNECTED) return false;
+        }
+        return mOutQueue.putBlocking(out, offset, length);
+    }
+
+    /**
+     * Queue ToyData frames for the writer thread, keeping at most one
+     * waiting frame per channel. A frame whose channel already has one
+     * waiting replaces it in place, so under congestion the toy receives
+     * the latest position instead of a growing backlog. Use write() for
+     * data that must not be merged.
+     * @param frames  Buffer holding whole ToyData frames back to back
+     * @param offset  Start of the first frame in the buffer
+     * @param length  Number of bytes, a multiple of ToyData.FRAME_LENGTH
+     */
+    public void writeFrames(byte[] frames, int offset, int length) {
+        synchronized (this) {
+            // While reconnecting, the queue keeps them for the next connection
+            if (mState != STATE_CONNECTED && mState != STATE_RECONNECTING) return;
+        }
+        mTraffic.writeFrames(frames, offset, length);
+    }
+
+    /**
+     * Queue several frames for the writer thread as one batch. Nothing is
+     * queued between them, and they leave in the same buffered write as
+     * long as they fit in the writer's buffer.
+     * @param frames The frames to write, in order
+     */
+    public void writeBatch(byte[][] frames) {
         synchronized (this) {
             if (mState != STATE_CONNECTED) return;
-            r = mConnectedThread;
         }
-        // Perform the write unsynchronized
-        r.write(out);
+        if (!mOutQueue.putAll(frames)) {
+            Log.w(TAG, "batch of " + frames.length + " frames discarded");
+        }
+    }
+
+    /**
+     * Set what happens to new writes while the outbound queue is full.
+     * @param policy  One of the FrameRingBuffer.POLICY_ constants
+     */
+    public void setOverflowPolicy(int policy) {
+        mOutQueue.setPolicy(policy);
+    }
+
+    /**
+     * Return the buffer that collects sent and received bytes for display.
+     * The UI drains it when it receives BluetoothChat.MESSAGE_ECHO.
+     */
+    public EchoBuffer getEchoBuffer() {
+        return mTraffic.getEchoBuffer();
+    }
+
+    /**
+     * Set a recorder to receive every frame sent and received.
+     * @param recorder  The recorder, or null for none
+     */
+    public void setSessionRecorder(SessionRecorder recorder) {
+        mTraffic.setSessionRecorder(recorder);
+    }
+
+    /**
+     * Set a trace to complete with the time of every write.
+     * @param trace  The trace, or null for none
+     */
+    public void setLatencyTrace(LatencyTrace trace) {
+        mTraffic.setLatencyTrace(trace);
+    }
+
+    /**
+     * Return the number of frames waiting for the writer thread.
+     */
+    public int getQueueDepth() {
+        return mOutQueue.size();
+    }
+
+    /**
+     * Return the number of queued frames that were replaced by a newer
+     * frame for their channel before they could be sent.
+     */
+    public long getCoalescedCount() {
+        return mOutQueue.getCoalescedCount();
+    }
+
+    /**
+     * Return the recent time taken to complete one write to the socket,
+     * averaged over the last few writes.
+     * @return The latency in nanoseconds
+     */
+    public long getWriteLatency() {
+        return mTraffic.getWriteLatency();
+    }
+
+    /**
+     * Choose how the connection waits for incoming data. By default it
+     * blocks in read() and is woken by the radio; a positive interval makes
+     * it check available() that often instead, for streams whose read()
+     * does not return when the socket is closed.
+     * @param millis  Poll interval in milliseconds, or 0 to block
+     */
+    public synchronized void setReadPollInterval(int millis) {
+        mReadPollInterval = millis;
+        if (mConnection != null) mConnection.setReadPollInterval(millis);
+    }
+
+    /**
+     * Set the listener for ToyData frames decoded from the inbound stream.
+     * It is called on the connection's reader thread, not the UI thread.
+     * @param listener  The listener, or null to stop listening
+     */
+    public void setFrameListener(ToyFrameParser.Listener listener) {
+        mTraffic.setFrameListener(listener);
+    }
+
+    /**
+     * Return the decoder of the inbound stream, for its error counters.
+     */
+    public ToyFrameParser getFrameParser() {
+        return mTraffic.getFrameParser();
+    }
+
+    /**
+     * Return the registry holding this service's metrics. Other components
+     * may register their own metrics in it.
+     */
+    public MetricsRegistry getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Copy the totals kept by the outbound queue and the frame parser into
+     * the metrics. Call before formatting them. All of them count from the
+     * service's creation: resetting the parser for a new connection only
+     * drops a partly assembled frame, not its error counts.
+     */
+    public void updateMetrics() {
+        mTraffic.updateMetrics();
     }
 
     /**
      * Indicate that the connection attempt failed and notify the UI Activity.
      */
     private void connectionFailed() {
+        mConnectFailures.increment();
+        boolean reconnecting = false;
+        synchronized (this) {
+            if (mState == STATE_RECONNECTING && mAutoReconnect) {
+                mConnectThread = null;
+                // A failed reconnection attempt only schedules the next one
+                if (mBackoff.getAttempts() < MAX_RECONNECT_ATTEMPTS) {
+                    scheduleReconnect();
+                    return;
+                }
+                if (D) Log.d(TAG, "giving up reconnecting to " + mLastDevice);
+                reconnecting = true;
+            }
+        }
+
         // Send a failure message back to the Activity
         Message msg = mHandler.obtainMessage(BluetoothChat.MESSAGE_TOAST);
         Bundle bundle = new Bundle();
-        bundle.putString(BluetoothChat.TOAST, "Unable to connect device");
+        bundle.putString(BluetoothChat.TOAST, reconnecting ? "Device connection was lost"
+                : "Unable to connect device");
         msg.setData(bundle);
         mHandler.sendMessage(msg);
 
@@ -249,6 +490,7 @@ public class BluetoothService {
      * Indicate that the connection was lost and notify the UI Activity.
      */
     private void connectionLost() {
+        mConnectionsLost.increment();
         // Send a failure message back to the Activity
         Message msg = mHandler.obtainMessage(BluetoothChat.MESSAGE_TOAST);
         Bundle bundle = new Bundle();
@@ -256,10 +498,47 @@ public class BluetoothService {
         msg.setData(bundle);
         mHandler.sendMessage(msg);
 
+        synchronized (this) {
+            if (mAutoReconnect && mLastDevice != null) {
+                // The queue keeps the latest frame per channel meanwhile
+                if (mConnection != null) {mConnection.close(); mConnection = null;}
+                scheduleReconnect();
+                return;
+            }
+        }
+
         // Start the service over to restart listening mode
         BluetoothService.this.start();
     }
 
+    /**
+     * Choose whether a lost connection to a device is retried, with
+     * growing delays, instead of falling back to listening mode. After
+     * MAX_RECONNECT_ATTEMPTS failed attempts the connection is reported
+     * lost and the service falls back to listening mode anyway.
+     */
+    public synchronized void setAutoReconnect(boolean enabled) {
+        mAutoReconnect = enabled;
+        // Give up a reconnection in progress
+        if (!enabled && mState == STATE_RECONNECTING) start();
+    }
+
+    public boolean isAutoReconnect() {
+        return mAutoReconnect;
+    }
+
+    /**
+     * Start the ReconnectThread to retry the last device after the next
+     * backoff delay.
+     */
+    private synchronized void scheduleReconnect() {
+        long delay = mBackoff.nextDelay();
+        if (D) Log.d(TAG, "reconnect to " + mLastDevice + " in " + delay + " ms");
+        mReconnectThread = new ReconnectThread(mLastDevice, mLastSecure, delay);
+        mReconnectThread.start();
+        if (mState != STATE_RECONNECTING) setState(STATE_RECONNECTING);
+    }
+
     /**
      * This thread runs while listening for incoming connections. It behaves
      * like a server-side client. It runs until a connection is accepted
@@ -313,6 +592,7 @@ public class BluetoothService {
                         switch (mState) {
                         case STATE_LISTEN:
                         case STATE_CONNECTING:
+                        case STATE_RECONNECTING:
                             // Situation normal. Start the connected thread.
                             connected(socket, socket.getRemoteDevice(),
                                     mSocketType);
@@ -396,6 +676,10 @@ public class BluetoothService {
                     Log.e(TAG, "unable to close() " + mSocketType +
                             " socket during connection failure", e2);
                 }
+                // A cancelled attempt has already been replaced
+                synchronized (BluetoothService.this) {
+                    if (mConnectThread != this) return;
+                }
                 connectionFailed();
                 return;
             }
@@ -419,82 +703,40 @@ public class BluetoothService {
     }
 
     /**
-     * This thread runs during a connection with a remote device.
-     * It handles all incoming and outgoing transmissions.
+     * This thread waits out a backoff delay, then starts a ConnectThread
+     * to the device whose connection was lost.
      */
-    private class ConnectedThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final InputStream mmInStream;
-        private final OutputStream mmOutStream;
-
-        public ConnectedThread(BluetoothSocket socket, String socketType) {
-            Log.d(TAG, "create ConnectedThread: " + socketType);
-            mmSocket = socket;
-            InputStream tmpIn = null;
-            OutputStream tmpOut = null;
-
-            // Get the BluetoothSocket input and output streams
-            try {
-                tmpIn = socket.getInputStream();
-                tmpOut = socket.getOutputStream();
-            } catch (IOException e) {
-                Log.e(TAG, "temp sockets not created", e);
-            }
+    private class ReconnectThread extends Thread {
+        private final BluetoothDevice mmDevice;
+        private final boolean mmSecure;
+        private final long mmDelay;
 
-            mmInStream = tmpIn;
-            mmOutStream = tmpOut;
+        public ReconnectThread(BluetoothDevice device, boolean secure, long delay) {
+            mmDevice = device;
+            mmSecure = secure;
+            mmDelay = delay;
         }
 
         public void run() {
-            Log.i(TAG, "BEGIN mConnectedThread");
-            byte[] buffer = new byte[1024];
-            int bytes;
-
-            // Keep listening to the InputStream while connected
-            while (true) {
-                try {
-                    // Read from the InputStream
-                    if ( mmInStream.available()>0) {
-                        bytes = mmInStream.read(buffer);
-
-                        // Send the obtained bytes to the UI Activity
-                        mHandler.obtainMessage(BluetoothChat.MESSAGE_READ, bytes, -1, buffer.clone())
-                                .sendToTarget();
-                    } else {
-                        SystemClock.sleep(100);
-                    }
-                } catch (IOException e) {
-                    Log.e(TAG, "disconnected", e);
-                    connectionLost();
-                    // Start the service over to restart listening mode
-                    BluetoothService.this.start();
-                    break;
-                }
-            }
-        }
-
-        /**
-         * Write to the connected OutStream.
-         * @param buffer  The bytes to write
-         */
-        public void write(byte[] buffer) {
+            setName("ReconnectThread");
             try {
-                mmOutStream.write(buffer);
+                Thread.sleep(mmDelay);
+            } catch (InterruptedException e) {
+                return;
+            }
 
-                // Share the sent message back to the UI Activity
-                mHandler.obtainMessage(BluetoothChat.MESSAGE_WRITE, -1, -1, buffer)
-                        .sendToTarget();
-            } catch (IOException e) {
-                Log.e(TAG, "Exception during write", e);
+            synchronized (BluetoothService.this) {
+                // Cancelled while waiting
+                if (mReconnectThread != this) return;
+                mReconnectThread = null;
+                mReconnectAttempts.increment();
+                mConnectThread = new ConnectThread(mmDevice, mmSecure);
+                mConnectThread.start();
             }
         }
 
         public void cancel() {
-            try {
-                mmSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "close() of connect socket failed", e);
-            }
+            interrupt();
         }
     }
-}
\ No newline at end of file
+}
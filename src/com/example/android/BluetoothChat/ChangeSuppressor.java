@@ -0,0 +1,80 @@
+package com.example.android.BluetoothChat;
+
+/**
+ * Decides, channel by channel, whether a new angle is worth sending.
+ * An angle within the deadband of the last one sent on its channel is
+ * suppressed, except that every channel is re-sent at least once per
+ * keyframe interval so the toy recovers from a lost frame.
+ */
+public class ChangeSuppressor {
+    private final int[] mLastAngles;
+    private final long[] mLastSentTimes;
+    private final boolean[] mHasSent;
+    private volatile int mDeadband;
+    private volatile long mKeyframeInterval;
+
+    // Statistics
+    private long mSent;
+    private long mSuppressed;
+
+    /**
+     * Constructor.
+     * @param channels        Number of channels, numbered from 0
+     * @param deadband        Largest change in degrees that is suppressed
+     * @param keyframeMillis  Longest time a channel goes without being sent
+     */
+    public ChangeSuppressor(int channels, int deadband, long keyframeMillis) {
+        mLastAngles = new int[channels];
+        mLastSentTimes = new long[channels];
+        mHasSent = new boolean[channels];
+        mDeadband = deadband;
+        mKeyframeInterval = keyframeMillis * 1000000L;
+    }
+
+    public void setDeadband(int degrees) {
+        mDeadband = degrees;
+    }
+
+    public void setKeyframeInterval(long millis) {
+        mKeyframeInterval = millis * 1000000L;
+    }
+
+    /**
+     * Check a new angle for a channel and remember it if it should be sent.
+     * @param now  Current time from System.nanoTime()
+     * @return true if the frame should be sent
+     */
+    public synchronized boolean shouldSend(int channel, int angle, long now) {
+        if (mHasSent[channel]
+                && Math.abs(angle - mLastAngles[channel]) <= mDeadband
+                && now - mLastSentTimes[channel] < mKeyframeInterval) {
+            mSuppressed++;
+            return false;
+        }
+        mHasSent[channel] = true;
+        mLastAngles[channel] = angle;
+        mLastSentTimes[channel] = now;
+        mSent++;
+        return true;
+    }
+
+    /**
+     * Forget what was sent, so every channel goes out on its next check.
+     * Call when a new connection starts.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < mHasSent.length; i++) {
+            mHasSent[i] = false;
+        }
+    }
+
+    /** Number of frames let through */
+    public synchronized long getSentCount() {
+        return mSent;
+    }
+
+    /** Number of frames held back as unchanged */
+    public synchronized long getSuppressedCount() {
+        return mSuppressed;
+    }
+}
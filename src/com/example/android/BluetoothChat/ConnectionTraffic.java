@@ -0,0 +1,226 @@
+package com.example.android.BluetoothChat;
+
+import java.io.IOException;
+
+/**
+ * Everything done with a connection's data apart from moving it: the
+ * outbound queue that the connection's writer drains, and the work done
+ * for every read and write, which is counting it in the metrics,
+ * decoding inbound ToyData frames, completing the latency trace, and
+ * recording it for the session recorder and the UI's echo. One instance
+ * lives as long as its owner and is the listener of each connection in
+ * turn. Nothing here depends on Android, so it runs unchanged on a plain
+ * JVM.
+ */
+public class ConnectionTraffic implements FrameSink, TransportConnection.Listener {
+    /**
+     * Receives the events the owner must act on, on the connection's
+     * threads.
+     */
+    public interface Callback {
+        /**
+         * Called when bytes were echoed and no refresh of the display is
+         * pending; the owner should refresh it after the given delay.
+         */
+        void onEchoPending(long delayMillis);
+
+        /**
+         * Called when the connection fails, as TransportConnection.Listener.onLost().
+         */
+        void onLost(IOException e);
+    }
+
+    // Outbound frames waiting for the writer thread
+    private static final int OUT_QUEUE_CAPACITY = 128;
+    private static final int OUT_QUEUE_SLOT_SIZE = 64;
+    // Sent and received bytes waiting for the next UI refresh, at most 30 per second
+    private static final int ECHO_CAPACITY = 256;
+    private static final long ECHO_REFRESH_INTERVAL = 33;
+
+    private final Callback mCallback;
+    private final FrameRingBuffer mOutQueue = new FrameRingBuffer(OUT_QUEUE_CAPACITY,
+            OUT_QUEUE_SLOT_SIZE, FrameRingBuffer.POLICY_DROP_OLDEST);
+    private final EchoBuffer mEchoBuffer = new EchoBuffer(ECHO_CAPACITY, ECHO_REFRESH_INTERVAL);
+
+    // Decodes ToyData frames from the inbound stream; used by the connection's read thread only
+    private final ToyFrameParser mFrameParser = new ToyFrameParser(new ToyFrameParser.Listener() {
+        public void onFrame(int channel, int angle, int speed, int additional) {
+            mFramesIn.increment();
+            ToyFrameParser.Listener listener = mFrameListener;
+            if (listener != null) listener.onFrame(channel, angle, speed, additional);
+        }
+    });
+    private volatile ToyFrameParser.Listener mFrameListener;
+
+    // Optional recorder of every frame sent and received
+    private volatile SessionRecorder mSessionRecorder = null;
+    private volatile LatencyTrace mLatencyTrace = null;
+
+    // Smoothed time the connection spends in write() and flush(), in nanoseconds
+    private volatile long mWriteLatency = 0;
+
+    // Totals kept by the queue and parser are copied in by updateMetrics()
+    private final MetricsRegistry.Counter mWrites;
+    private final MetricsRegistry.Counter mBytesOut;
+    private final MetricsRegistry.Counter mFramesOut;
+    private final MetricsRegistry.Counter mFramesDropped;
+    private final MetricsRegistry.Counter mFramesCoalesced;
+    private final MetricsRegistry.Counter mReads;
+    private final MetricsRegistry.Counter mBytesIn;
+    private final MetricsRegistry.Counter mFramesIn;
+    private final MetricsRegistry.Counter mChecksumErrors;
+    private final MetricsRegistry.Counter mFramingErrors;
+    private final MetricsRegistry.Gauge mQueueDepth;
+    private final MetricsRegistry.Histogram mWriteTime;
+
+    /**
+     * Constructor.
+     * @param metrics   Registry to hold the traffic metrics
+     * @param callback  Receives the events the owner must act on
+     */
+    public ConnectionTraffic(MetricsRegistry metrics, Callback callback) {
+        mCallback = callback;
+        mWrites = metrics.counter("writes");
+        mBytesOut = metrics.counter("bytes_out");
+        mFramesOut = metrics.counter("frames_out");
+        mFramesDropped = metrics.counter("frames_dropped");
+        mFramesCoalesced = metrics.counter("frames_coalesced");
+        mReads = metrics.counter("reads");
+        mBytesIn = metrics.counter("bytes_in");
+        mFramesIn = metrics.counter("frames_in");
+        mChecksumErrors = metrics.counter("checksum_errors");
+        mFramingErrors = metrics.counter("framing_errors");
+        mQueueDepth = metrics.gauge("queue_depth");
+        mWriteTime = metrics.histogram("write_latency");
+    }
+
+    /**
+     * Return the queue to hand to each TransportConnection.
+     */
+    public FrameRingBuffer getQueue() {
+        return mOutQueue;
+    }
+
+    /**
+     * Prepare for a new connection: drop any partly decoded inbound frame.
+     */
+    public void reset() {
+        mFrameParser.reset();
+    }
+
+    public void write(byte[] buffer, int offset, int length) {
+        mOutQueue.put(buffer, offset, length);
+    }
+
+    public boolean writeBlocking(byte[] buffer, int offset, int length) {
+        return mOutQueue.putBlocking(buffer, offset, length);
+    }
+
+    /**
+     * Queue ToyData frames, keeping at most one waiting frame per channel.
+     * A frame whose channel already has one waiting replaces it in place.
+     * @param frames  Buffer holding whole ToyData frames back to back
+     * @param offset  Start of the first frame in the buffer
+     * @param length  Number of bytes, a multiple of ToyData.FRAME_LENGTH
+     */
+    public void writeFrames(byte[] frames, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i + ToyData.FRAME_LENGTH <= end; i += ToyData.FRAME_LENGTH) {
+            mOutQueue.putLatest(frames, i, ToyData.FRAME_LENGTH, frames[i + 2] & 0xFF);
+        }
+    }
+
+    public void onRead(byte[] buffer, int length) {
+        mReads.increment();
+        mBytesIn.add(length);
+        // Decode any ToyData frames in place
+        mFrameParser.feed(buffer, 0, length);
+        // Share the obtained bytes with the UI Activity
+        echo(ConversationLog.DIRECTION_IN, buffer, length);
+    }
+
+    public void onWrite(byte[] buffer, int length, long takenTime, long nanos) {
+        // Exponential average with a weight of 1/8 per write
+        mWriteLatency += (nanos - mWriteLatency) >> 3;
+        mWriteTime.record(nanos);
+        mWrites.increment();
+        mBytesOut.add(length);
+        LatencyTrace trace = mLatencyTrace;
+        if (trace != null) trace.written(takenTime, System.nanoTime());
+        // Share the sent bytes back to the UI Activity
+        echo(ConversationLog.DIRECTION_OUT, buffer, length);
+    }
+
+    public void onLost(IOException e) {
+        mCallback.onLost(e);
+    }
+
+    /**
+     * Record sent or received bytes for display, asking for a refresh
+     * unless one is already pending, and in the session recording.
+     */
+    private void echo(int direction, byte[] buffer, int length) {
+        SessionRecorder recorder = mSessionRecorder;
+        if (recorder != null) recorder.recordFrame(direction, buffer, 0, length);
+        if (mEchoBuffer.record(direction, buffer, 0, length)) {
+            mCallback.onEchoPending(mEchoBuffer.getRefreshInterval());
+        }
+    }
+
+    /**
+     * Return the buffer that collects sent and received bytes for display.
+     */
+    public EchoBuffer getEchoBuffer() {
+        return mEchoBuffer;
+    }
+
+    /**
+     * Set a recorder to receive every frame sent and received.
+     * @param recorder  The recorder, or null for none
+     */
+    public void setSessionRecorder(SessionRecorder recorder) {
+        mSessionRecorder = recorder;
+    }
+
+    /**
+     * Set a trace to complete with the time of every write.
+     * @param trace  The trace, or null for none
+     */
+    public void setLatencyTrace(LatencyTrace trace) {
+        mLatencyTrace = trace;
+    }
+
+    /**
+     * Set the listener for ToyData frames decoded from the inbound stream.
+     * It is called on the connection's reader thread.
+     * @param listener  The listener, or null to stop listening
+     */
+    public void setFrameListener(ToyFrameParser.Listener listener) {
+        mFrameListener = listener;
+    }
+
+    public ToyFrameParser getFrameParser() {
+        return mFrameParser;
+    }
+
+    /**
+     * Return the recent time taken to complete one write, averaged over
+     * the last few writes, in nanoseconds.
+     */
+    public long getWriteLatency() {
+        return mWriteLatency;
+    }
+
+    /**
+     * Copy the totals kept by the outbound queue and the frame parser into
+     * the metrics.
+     */
+    public void updateMetrics() {
+        mFramesOut.set(mOutQueue.getTakenCount());
+        mFramesDropped.set(mOutQueue.getDroppedCount());
+        mFramesCoalesced.set(mOutQueue.getCoalescedCount());
+        mQueueDepth.set(mOutQueue.size());
+        mChecksumErrors.set(mFrameParser.getChecksumErrorCount());
+        mFramingErrors.set(mFrameParser.getFramingErrorCount());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.BluetoothChat;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * Shows a ConversationLog in a ListView. Rows are turned into text only
+ * when they are displayed, so the cost of a row that is never scrolled
+ * into view is the copy of its bytes; changing the show mode re-renders
+ * the rows already in the log.
+ */
+public class ConversationAdapter extends BaseAdapter {
+    // Show modes
+    public static final int MODE_CHAR = 0;
+    public static final int MODE_HEX = 1;
+
+    private final LayoutInflater mInflater;
+    private final ConversationLog mLog;
+    private int mShowMode = MODE_HEX;
+    private String mDeviceName = null;
+    // Reused by getView for building the row text
+    private final StringBuilder mText = new StringBuilder();
+
+    public ConversationAdapter(Context context, ConversationLog log) {
+        mInflater = LayoutInflater.from(context);
+        mLog = log;
+    }
+
+    /**
+     * Set how rows are rendered and redraw the visible ones.
+     * @param mode  MODE_CHAR or MODE_HEX
+     */
+    public void setShowMode(int mode) {
+        mShowMode = mode;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Set the name shown in front of received rows.
+     */
+    public void setDeviceName(String name) {
+        mDeviceName = name;
+        notifyDataSetChanged();
+    }
+
+    public void clear() {
+        mLog.clear();
+        notifyDataSetChanged();
+    }
+
+    public int getCount() {
+        return mLog.size();
+    }
+
+    public Object getItem(int position) {
+        return mLog.getData(position);
+    }
+
+    public long getItemId(int position) {
+        return position;
+    }
+
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view;
+        if (convertView == null) {
+            view = (TextView) mInflater.inflate(R.layout.message, parent, false);
+        } else {
+            view = (TextView) convertView;
+        }
+
+        StringBuilder text = mText;
+        text.setLength(0);
+        if (mLog.getDirection(position) == ConversationLog.DIRECTION_OUT) {
+            text.append("Me:  ");
+        } else {
+            text.append(mDeviceName).append(":  ");
+        }
+
+        byte[] data = mLog.getData(position);
+        int length = mLog.getStoredLength(position);
+        if (mShowMode == MODE_HEX) {
+            HexCodec.append(text, data, 0, length);
+        } else {
+            text.append(new String(data, 0, length));
+        }
+        if (mLog.getLength(position) > length) {
+            // Only the start of a long row is kept
+            text.append("...");
+        }
+
+        view.setText(text);
+        return view;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.BluetoothChat;
+
+/**
+ * Fixed-capacity history of the bytes sent and received, kept as raw
+ * bytes with a timestamp and direction per row. Once full, each new row
+ * replaces the oldest one, so a long session uses a constant amount of
+ * memory. Rows longer than ROW_BYTES keep only their first ROW_BYTES
+ * bytes, along with their original length. Text is produced only when
+ * a row is displayed, by ConversationAdapter.
+ */
+public class ConversationLog {
+    // Directions
+    public static final int DIRECTION_OUT = 0;  // sent by us
+    public static final int DIRECTION_IN = 1;   // received from the device
+
+    public static final int ROW_BYTES = 64;
+
+    private final byte[][] mData;
+    private final int[] mLengths;
+    private final long[] mTimes;
+    private final int[] mDirections;
+    private int mHead;   // index of the oldest row
+    private int mCount;
+
+    /**
+     * Constructor. Preallocates every row.
+     * @param capacity  Number of rows kept
+     */
+    public ConversationLog(int capacity) {
+        mData = new byte[capacity][ROW_BYTES];
+        mLengths = new int[capacity];
+        mTimes = new long[capacity];
+        mDirections = new int[capacity];
+    }
+
+    /**
+     * Append a row, replacing the oldest one when full.
+     * @param direction  DIRECTION_OUT or DIRECTION_IN
+     * @param time       Wall clock time in milliseconds
+     */
+    public void add(int direction, byte[] buffer, int offset, int length, long time) {
+        int index;
+        if (mCount < mData.length) {
+            index = (mHead + mCount) % mData.length;
+            mCount++;
+        } else {
+            index = mHead;
+            mHead = (mHead + 1) % mData.length;
+        }
+        System.arraycopy(buffer, offset, mData[index], 0, Math.min(length, ROW_BYTES));
+        mLengths[index] = length;
+        mTimes[index] = time;
+        mDirections[index] = direction;
+    }
+
+    public void clear() {
+        mHead = 0;
+        mCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public int getCapacity() {
+        return mData.length;
+    }
+
+    /**
+     * Return the stored bytes of a row; only the first
+     * getStoredLength(position) of them are valid.
+     * @param position  Row number, 0 being the oldest
+     */
+    public byte[] getData(int position) {
+        return mData[index(position)];
+    }
+
+    /** Number of valid bytes returned by getData() */
+    public int getStoredLength(int position) {
+        return Math.min(mLengths[index(position)], ROW_BYTES);
+    }
+
+    /** Length of the row before it was cut to ROW_BYTES */
+    public int getLength(int position) {
+        return mLengths[index(position)];
+    }
+
+    public long getTime(int position) {
+        return mTimes[index(position)];
+    }
+
+    public int getDirection(int position) {
+        return mDirections[index(position)];
+    }
+
+    private int index(int position) {
+        return (mHead + position) % mData.length;
+    }
+}
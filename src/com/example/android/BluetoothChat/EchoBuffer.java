@@ -0,0 +1,76 @@
+package com.example.android.BluetoothChat;
+
+/**
+ * Collects the bytes written and read by the connection threads until
+ * the UI thread next refreshes the conversation. Recording is a copy into
+ * a preallocated ConversationLog under a lock; the UI moves everything
+ * recorded since its last refresh in one go, so the number of list
+ * updates depends on the refresh rate rather than the frame rate. In
+ * sampling mode only every Nth write and every Nth read is recorded.
+ */
+public class EchoBuffer {
+    private final ConversationLog mPending;
+    private final long mRefreshInterval;
+    private volatile int mSampling = 1;
+    private int mOutSkipped;
+    private int mInSkipped;
+    private boolean mRefreshScheduled = false;
+
+    /**
+     * Constructor.
+     * @param capacity         Rows held between two refreshes
+     * @param refreshInterval  Shortest time between two refreshes, in milliseconds
+     */
+    public EchoBuffer(int capacity, long refreshInterval) {
+        mPending = new ConversationLog(capacity);
+        mRefreshInterval = refreshInterval;
+    }
+
+    /**
+     * Record only every Nth write and every Nth read.
+     * @param n  1 to record everything
+     */
+    public void setSampling(int n) {
+        mSampling = Math.max(1, n);
+    }
+
+    public long getRefreshInterval() {
+        return mRefreshInterval;
+    }
+
+    /**
+     * Record bytes sent or received.
+     * @param direction  ConversationLog.DIRECTION_OUT or DIRECTION_IN
+     * @return true if the caller must schedule a refresh in
+     *         getRefreshInterval() milliseconds; false if one is pending
+     *         or the bytes were skipped by sampling
+     */
+    public synchronized boolean record(int direction, byte[] buffer, int offset, int length) {
+        int sampling = mSampling;
+        if (direction == ConversationLog.DIRECTION_OUT) {
+            if (++mOutSkipped < sampling) return false;
+            mOutSkipped = 0;
+        } else {
+            if (++mInSkipped < sampling) return false;
+            mInSkipped = 0;
+        }
+
+        mPending.add(direction, buffer, offset, length, System.currentTimeMillis());
+        if (mRefreshScheduled) return false;
+        mRefreshScheduled = true;
+        return true;
+    }
+
+    /**
+     * Move everything recorded since the last call to the end of log.
+     * Called on the UI thread when a scheduled refresh is due.
+     */
+    public synchronized void drainTo(ConversationLog log) {
+        for (int i = 0; i < mPending.size(); i++) {
+            log.add(mPending.getDirection(i), mPending.getData(i), 0,
+                    mPending.getLength(i), mPending.getTime(i));
+        }
+        mPending.clear();
+        mRefreshScheduled = false;
+    }
+}
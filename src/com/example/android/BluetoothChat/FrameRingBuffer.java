@@ -0,0 +1,309 @@
+package com.example.android.BluetoothChat;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size queue of outbound frames shared by the threads that produce
+ * data and the single thread that writes it to the connection. All slots
+ * are allocated up front, so queueing a frame is a bounded copy and never
+ * allocates. What happens when the queue is full is decided by the
+ * overflow policy.
+ *
+ * Frames queued with putLatest() carry a channel number, and at most one
+ * of them per channel is ever waiting: a newer frame for the channel
+ * overwrites the queued one in place, so a congested link only ever sends
+ * the latest state of each channel. Frames queued with put() are never
+ * merged.
+ */
+public class FrameRingBuffer {
+    // Overflow policies
+    public static final int POLICY_BLOCK = 0;       // wait until the writer makes room
+    public static final int POLICY_DROP_OLDEST = 1; // overwrite the oldest queued frame
+    public static final int POLICY_DROP_NEWEST = 2; // discard the frame being queued
+
+    private final byte[][] mSlots;
+    private final int[] mLengths;
+    private final int[] mSlotChannels;  // channel of each slot, or NO_CHANNEL
+    private final int[] mPendingSlots;  // queued slot of each channel, or -1
+    private final int mSlotSize;
+    private int mHead;  // index of the oldest queued frame
+    private int mCount; // number of queued frames
+    private int mPolicy;
+    private long mDropped;
+    private long mCoalesced;
+    private long mTaken;
+
+    private static final int NO_CHANNEL = -1;
+    private static final int CHANNEL_COUNT = 256;
+
+    /**
+     * Constructor. Preallocates every slot.
+     * @param capacity  Number of frames the queue can hold
+     * @param slotSize  Largest frame a slot can hold; longer writes are
+     *                  split over several slots
+     * @param policy    One of the POLICY_ constants
+     */
+    public FrameRingBuffer(int capacity, int slotSize, int policy) {
+        mSlots = new byte[capacity][slotSize];
+        mLengths = new int[capacity];
+        mSlotChannels = new int[capacity];
+        mPendingSlots = new int[CHANNEL_COUNT];
+        Arrays.fill(mSlotChannels, NO_CHANNEL);
+        Arrays.fill(mPendingSlots, -1);
+        mSlotSize = slotSize;
+        mPolicy = policy;
+    }
+
+    public synchronized void setPolicy(int policy) {
+        mPolicy = policy;
+        // Producers blocked under the old policy may now drop instead
+        notifyAll();
+    }
+
+    public synchronized int getPolicy() {
+        return mPolicy;
+    }
+
+    public int getSlotSize() {
+        return mSlotSize;
+    }
+
+    /**
+     * Queue bytes for writing.
+     * @return false if any part of the data was discarded
+     */
+    public boolean put(byte[] buffer, int offset, int length) {
+        return put(buffer, offset, length, -1);
+    }
+
+    /**
+     * Queue bytes for writing, waiting for room whatever the overflow
+     * policy. Gives up if the calling thread is interrupted.
+     * @return false if any part of the data was discarded
+     */
+    public boolean putBlocking(byte[] buffer, int offset, int length) {
+        return put(buffer, offset, length, POLICY_BLOCK);
+    }
+
+    private boolean put(byte[] buffer, int offset, int length, int policy) {
+        boolean queued = true;
+        while (length > 0) {
+            int chunk = Math.min(length, mSlotSize);
+            queued &= putSlot(buffer, offset, chunk, NO_CHANNEL, policy);
+            offset += chunk;
+            length -= chunk;
+        }
+        return queued;
+    }
+
+    /**
+     * Queue several frames as one batch: no other frame is queued between
+     * them, and the writer cannot take part of the batch before the rest
+     * is queued. If the batch does not fit, the overflow policy applies to
+     * it as a whole; POLICY_DROP_OLDEST only drops frames queued before it.
+     * @return false if the batch was discarded, which it always is when it
+     *         needs more slots than the queue has
+     */
+    public synchronized boolean putAll(byte[][] frames) {
+        int needed = 0;
+        for (int i = 0; i < frames.length; i++) {
+            needed += (frames[i].length + mSlotSize - 1) / mSlotSize;
+        }
+        if (needed > mSlots.length) {
+            mDropped += needed;
+            return false;
+        }
+
+        while (mSlots.length - mCount < needed) {
+            switch (mPolicy) {
+            case POLICY_DROP_OLDEST:
+                release(mHead);
+                mHead = (mHead + 1) % mSlots.length;
+                mCount--;
+                mDropped++;
+                break;
+            case POLICY_DROP_NEWEST:
+                mDropped += needed;
+                return false;
+            default:
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    mDropped += needed;
+                    return false;
+                }
+                break;
+            }
+        }
+
+        for (int i = 0; i < frames.length; i++) {
+            byte[] frame = frames[i];
+            for (int offset = 0; offset < frame.length; offset += mSlotSize) {
+                int length = Math.min(frame.length - offset, mSlotSize);
+                int tail = (mHead + mCount) % mSlots.length;
+                System.arraycopy(frame, offset, mSlots[tail], 0, length);
+                mLengths[tail] = length;
+                mSlotChannels[tail] = NO_CHANNEL;
+                mCount++;
+            }
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Queue a frame for a channel, replacing the frame already waiting for
+     * that channel if there is one.
+     * @param channel  Channel number, 0-255
+     * @return false if the frame was discarded
+     */
+    public boolean putLatest(byte[] buffer, int offset, int length, int channel) {
+        return putSlot(buffer, offset, length, channel, -1);
+    }
+
+    /**
+     * @param policy  Overflow policy for this frame, or -1 for the queue's
+     */
+    private synchronized boolean putSlot(byte[] buffer, int offset, int length, int channel,
+            int policy) {
+        while (true) {
+            if (channel != NO_CHANNEL && mPendingSlots[channel] >= 0) {
+                // Merge into the frame already waiting for this channel
+                int slot = mPendingSlots[channel];
+                System.arraycopy(buffer, offset, mSlots[slot], 0, length);
+                mLengths[slot] = length;
+                mCoalesced++;
+                return true;
+            }
+            if (mCount < mSlots.length) break;
+
+            switch (policy >= 0 ? policy : mPolicy) {
+            case POLICY_DROP_OLDEST:
+                release(mHead);
+                mHead = (mHead + 1) % mSlots.length;
+                mCount--;
+                mDropped++;
+                break;
+            case POLICY_DROP_NEWEST:
+                mDropped++;
+                return false;
+            default:
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    mDropped++;
+                    return false;
+                }
+                break;
+            }
+        }
+
+        int tail = (mHead + mCount) % mSlots.length;
+        System.arraycopy(buffer, offset, mSlots[tail], 0, length);
+        mLengths[tail] = length;
+        mSlotChannels[tail] = channel;
+        if (channel != NO_CHANNEL) mPendingSlots[channel] = tail;
+        mCount++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Wait until at least one frame is queued, then move as many whole
+     * frames as fit into the given buffer, oldest first.
+     * @param buffer  Destination, at least one slot long
+     * @return The number of bytes copied
+     */
+    public synchronized int take(byte[] buffer) throws InterruptedException {
+        while (mCount == 0) {
+            wait();
+        }
+
+        int length = 0;
+        while (mCount > 0 && length + mLengths[mHead] <= buffer.length) {
+            System.arraycopy(mSlots[mHead], 0, buffer, length, mLengths[mHead]);
+            length += mLengths[mHead];
+            release(mHead);
+            mHead = (mHead + 1) % mSlots.length;
+            mCount--;
+            mTaken++;
+        }
+        notifyAll();
+        return length;
+    }
+
+    /**
+     * A slot is leaving the queue; stop merging into it.
+     */
+    private void release(int slot) {
+        int channel = mSlotChannels[slot];
+        if (channel != NO_CHANNEL) {
+            if (mPendingSlots[channel] == slot) mPendingSlots[channel] = -1;
+            mSlotChannels[slot] = NO_CHANNEL;
+        }
+    }
+
+    /**
+     * Discard everything queued and release any blocked producer.
+     */
+    public synchronized void clear() {
+        while (mCount > 0) {
+            release(mHead);
+            mHead = (mHead + 1) % mSlots.length;
+            mCount--;
+        }
+        mHead = 0;
+        notifyAll();
+    }
+
+    /**
+     * Discard every frame queued with put() and release any blocked
+     * producer, but keep the frame waiting for each channel, in order.
+     * After a lost connection, what is kept is the latest state of every
+     * channel still queued; frames already taken by the writer are not
+     * put back.
+     */
+    public synchronized void clearAllButLatest() {
+        int kept = 0;
+        for (int i = 0; i < mCount; i++) {
+            int slot = (mHead + i) % mSlots.length;
+            int channel = mSlotChannels[slot];
+            if (channel == NO_CHANNEL) continue;
+
+            int to = (mHead + kept) % mSlots.length;
+            if (to != slot) {
+                // Swap the slot buffers rather than copy the frame
+                byte[] frame = mSlots[to];
+                mSlots[to] = mSlots[slot];
+                mSlots[slot] = frame;
+                mLengths[to] = mLengths[slot];
+                mSlotChannels[to] = channel;
+                mSlotChannels[slot] = NO_CHANNEL;
+                mPendingSlots[channel] = to;
+            }
+            kept++;
+        }
+        mCount = kept;
+        notifyAll();
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /** Number of frames handed to the writer by take() */
+    public synchronized long getTakenCount() {
+        return mTaken;
+    }
+
+    /** Number of frames that replaced an older queued frame of their channel */
+    public synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+}
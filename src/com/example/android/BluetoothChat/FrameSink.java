@@ -0,0 +1,28 @@
+package com.example.android.BluetoothChat;
+
+/**
+ * Destination for outbound bytes, such as a connected BluetoothService.
+ * Implementations copy the bytes before returning, so callers may reuse
+ * their buffers.
+ */
+public interface FrameSink {
+    /**
+     * Queue bytes that must be sent exactly as given.
+     */
+    void write(byte[] buffer, int offset, int length);
+
+    /**
+     * Queue bytes that must be sent exactly as given, waiting while the
+     * queue is full instead of dropping anything. Returns early if the
+     * calling thread is interrupted.
+     * @return false if the bytes were not all queued, because the sink
+     *         cannot send now or the wait was interrupted
+     */
+    boolean writeBlocking(byte[] buffer, int offset, int length);
+
+    /**
+     * Queue whole ToyData frames, of which only the newest per channel
+     * needs to reach the toy.
+     */
+    void writeFrames(byte[] frames, int offset, int length);
+}
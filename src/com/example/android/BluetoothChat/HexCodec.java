@@ -0,0 +1,127 @@
+package com.example.android.BluetoothChat;
+
+/**
+ * Table-driven conversion between bytes and hexadecimal text, used for
+ * showing frames and for parsing hex typed by the user or read from
+ * scripts. Encoding writes into a caller's char[] or StringBuilder and
+ * decoding writes into a caller's byte[], so neither allocates. Invalid
+ * input is reported through the return value with the offset of the
+ * first bad character, not by an exception.
+ */
+public final class HexCodec {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    // Value of each ASCII character as a hex digit, or -1
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            VALUES['a' + i] = (byte) (10 + i);
+            VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    /**
+     * Write two lower-case hex digits per byte into dst.
+     * @return the offset in dst just past the last digit
+     */
+    public static int encode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            dst[dstOffset++] = DIGITS[(src[i] >> 4) & 0x0F];
+            dst[dstOffset++] = DIGITS[src[i] & 0x0F];
+        }
+        return dstOffset;
+    }
+
+    /**
+     * Append two lower-case hex digits per byte to text.
+     * @return text
+     */
+    public static StringBuilder append(StringBuilder text, byte[] src, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            text.append(DIGITS[(src[i] >> 4) & 0x0F]);
+            text.append(DIGITS[src[i] & 0x0F]);
+        }
+        return text;
+    }
+
+    /**
+     * Return the bytes as a string of hex digits.
+     */
+    public static String toHexString(byte[] bytes) {
+        char[] text = new char[bytes.length * 2];
+        encode(bytes, 0, bytes.length, text, 0);
+        return new String(text);
+    }
+
+    /**
+     * Return the number of bytes parseEntry() writes for an entry.
+     */
+    public static int entryLength(String entry) {
+        if (!entry.startsWith("0x")) {
+            return entry.getBytes().length;
+        }
+        return (entry.length() - 2) / 2;
+    }
+
+    /**
+     * Write the bytes of an entry typed by the user into dst: the bytes
+     * its hex digits spell if it starts with "0x", otherwise its text.
+     * @return the number of bytes written, or, if a character is not a hex
+     *         digit, -(offset + 1) where offset is that character's column
+     *         in the entry; see errorOffset()
+     */
+    public static int parseEntry(String entry, byte[] dst, int dstOffset) {
+        if (!entry.startsWith("0x")) {
+            byte[] text = entry.getBytes();
+            System.arraycopy(text, 0, dst, dstOffset, text.length);
+            return text.length;
+        }
+        int result = decode(entry, 2, entry.length(), dst, dstOffset);
+        // Columns count from the start of the entry, "0x" included
+        return result < 0 ? result - 2 : result;
+    }
+
+    /**
+     * Decode pairs of hex digits from text[start, end) into dst. A last
+     * unpaired digit is ignored.
+     * @return the number of bytes written, or, if a character is not a hex
+     *         digit, -(offset + 1) where offset is that character's
+     *         position relative to start; see errorOffset()
+     */
+    public static int decode(CharSequence text, int start, int end, byte[] dst, int dstOffset) {
+        int count = (end - start) / 2;
+        for (int i = 0; i < count; i++) {
+            int pos = start + 2 * i;
+            int high = value(text.charAt(pos));
+            if (high < 0) return -(pos - start + 1);
+            int low = value(text.charAt(pos + 1));
+            if (low < 0) return -(pos - start + 2);
+            dst[dstOffset + i] = (byte) ((high << 4) | low);
+        }
+        return count;
+    }
+
+    /**
+     * Return the offset of the bad character reported by a negative
+     * result of decode().
+     */
+    public static int errorOffset(int result) {
+        return -result - 1;
+    }
+
+    private static int value(char c) {
+        return c < VALUES.length ? VALUES[c] : -1;
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.BluetoothChat;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Per-frame timestamps for each stage between an accelerometer sample and
+ * the socket write that carries it, kept in a preallocated ring. Each row
+ * is one batch of frames sent by a tick: when the sample it came from was
+ * delivered and converted, when the frames were encoded, when the queue
+ * accepted them, and when the writer took them off the queue and its write
+ * returned. Rows are written by the tick thread once the frames are queued
+ * and completed by the writer thread, which stamps every row encoded
+ * before it took its batch. A batch whose put races the take may be
+ * credited to the write before or after the one that carried it.
+ *
+ * Tracing is off by default; while off, every trace point costs one
+ * volatile read. Export after switching it off: as Chrome trace-event
+ * JSON (chrome://tracing or Perfetto), as a compact binary file, or as
+ * per-stage latency histograms.
+ */
+public final class LatencyTrace {
+    // Stages, in order
+    public static final int STAGE_SAMPLE = 0;     // sample delivered to the pipeline
+    public static final int STAGE_CONVERTED = 1;  // filtered and converted to angles
+    public static final int STAGE_ENCODED = 2;    // frames encoded on the next tick
+    public static final int STAGE_ENQUEUED = 3;   // accepted by the outbound queue
+    public static final int STAGE_DEQUEUED = 4;   // taken off the queue by the writer
+    public static final int STAGE_WRITTEN = 5;    // write() and flush() returned
+    public static final int STAGES = 6;
+
+    private static final String[] STAGE_NAMES = {
+        "sample", "convert", "encode", "enqueue", "queue", "write"
+    };
+
+    // Binary export: int MAGIC, int STAGES, int row count, then per row
+    // the sensor event timestamp and STAGES System.nanoTime() values
+    public static final int MAGIC = 0x544c5431;  // "TLT1"
+
+    private static final int COLUMNS = STAGES + 1;
+    private static final int COLUMN_SENSOR_TIMESTAMP = STAGES;
+
+    private final long[] mRows;
+    private final int mCapacity;
+    private volatile boolean mEnabled = false;
+    // Rows started so far; written by the tick thread
+    private volatile long mStarted = 0;
+    // Rows the writer has completed; written by the writer thread
+    private volatile long mCompleted = 0;
+
+    /**
+     * Constructor. Preallocates every row.
+     * @param capacity  Number of rows kept; older rows are overwritten
+     */
+    public LatencyTrace(int capacity) {
+        mCapacity = capacity;
+        mRows = new long[capacity * COLUMNS];
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Forget every row. Call while disabled.
+     */
+    public synchronized void clear() {
+        mStarted = 0;
+        mCompleted = 0;
+    }
+
+    /**
+     * Record a batch of frames the queue has just accepted. Called on the
+     * tick thread.
+     * @param encodedTime   Stamped before the frames were put on the queue
+     * @param enqueuedTime  Stamped after the put returned
+     * @param sensorTimestamp  The sample's sensor event timestamp, exported as is
+     */
+    public void queued(long sampleTime, long convertedTime, long sensorTimestamp,
+            long encodedTime, long enqueuedTime) {
+        if (!mEnabled) return;
+        long row = mStarted;
+        int base = (int) (row % mCapacity) * COLUMNS;
+        mRows[base + STAGE_SAMPLE] = sampleTime;
+        mRows[base + STAGE_CONVERTED] = convertedTime;
+        mRows[base + STAGE_ENCODED] = encodedTime;
+        mRows[base + STAGE_ENQUEUED] = enqueuedTime;
+        mRows[base + STAGE_DEQUEUED] = 0;
+        mRows[base + STAGE_WRITTEN] = 0;
+        mRows[base + COLUMN_SENSOR_TIMESTAMP] = sensorTimestamp;
+        // Publishes the row to the writer thread
+        mStarted = row + 1;
+    }
+
+    /**
+     * Complete the rows encoded before the writer took its batch. Called
+     * on the writer thread after every write.
+     * @param dequeuedTime  When take() returned the batch
+     * @param writtenTime   When its write returned
+     */
+    public void written(long dequeuedTime, long writtenTime) {
+        if (!mEnabled) return;
+        long started = mStarted;
+        long row = Math.max(mCompleted, started - mCapacity);
+        for (; row < started; row++) {
+            int base = (int) (row % mCapacity) * COLUMNS;
+            // Encoded after the take: left in a later write
+            if (mRows[base + STAGE_ENCODED] > dequeuedTime) break;
+            // A put that returned after the take shows no time queued
+            mRows[base + STAGE_DEQUEUED] =
+                    Math.max(dequeuedTime, mRows[base + STAGE_ENQUEUED]);
+            mRows[base + STAGE_WRITTEN] = writtenTime;
+        }
+        mCompleted = row;
+    }
+
+    /**
+     * Return the number of complete rows held.
+     */
+    public synchronized int size() {
+        return (int) Math.min(mCompleted, mCapacity);
+    }
+
+    private int firstRow() {
+        return (int) (Math.max(0, mCompleted - mCapacity) % mCapacity);
+    }
+
+    private long get(int row, int column) {
+        return mRows[((firstRow() + row) % mCapacity) * COLUMNS + column];
+    }
+
+    /**
+     * Write the complete rows as Chrome trace events: one track per stage,
+     * one slice per row for the time spent reaching that stage.
+     */
+    public synchronized void exportJson(File file) throws IOException {
+        Writer out = new BufferedWriter(new FileWriter(file));
+        try {
+            int rows = size();
+            long origin = rows > 0 ? get(0, STAGE_SAMPLE) : 0;
+            out.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[\n");
+            boolean first = true;
+            for (int stage = 0; stage < STAGES; stage++) {
+                if (!first) out.write(",\n");
+                first = false;
+                out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + stage
+                        + ",\"args\":{\"name\":\"" + STAGE_NAMES[stage] + "\"}}");
+            }
+            for (int row = 0; row < rows; row++) {
+                // The sample is an instant; each later stage a slice from the one before
+                out.write(",\n{\"name\":\"" + STAGE_NAMES[STAGE_SAMPLE]
+                        + "\",\"ph\":\"i\",\"s\":\"t\",\"pid\":1,\"tid\":" + STAGE_SAMPLE
+                        + ",\"ts\":" + micros(get(row, STAGE_SAMPLE) - origin)
+                        + ",\"args\":{\"row\":" + row
+                        + ",\"sensor_timestamp\":" + get(row, COLUMN_SENSOR_TIMESTAMP) + "}}");
+                for (int stage = 1; stage < STAGES; stage++) {
+                    long start = get(row, stage - 1);
+                    out.write(",\n{\"name\":\"" + STAGE_NAMES[stage]
+                            + "\",\"ph\":\"X\",\"pid\":1,\"tid\":" + stage
+                            + ",\"ts\":" + micros(start - origin)
+                            + ",\"dur\":" + micros(get(row, stage) - start)
+                            + ",\"args\":{\"row\":" + row + "}}");
+                }
+            }
+            out.write("\n]}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String micros(long nanos) {
+        // Chrome trace times are in microseconds
+        long abs = Math.abs(nanos);
+        return (nanos < 0 ? "-" : "") + (abs / 1000) + "."
+                + Long.toString(1000 + abs % 1000).substring(1);
+    }
+
+    /**
+     * Write the complete rows in the binary layout described at MAGIC.
+     */
+    public synchronized void exportBinary(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            int rows = size();
+            out.writeInt(MAGIC);
+            out.writeInt(STAGES);
+            out.writeInt(rows);
+            for (int row = 0; row < rows; row++) {
+                out.writeLong(get(row, COLUMN_SENSOR_TIMESTAMP));
+                for (int stage = 0; stage < STAGES; stage++) {
+                    out.writeLong(get(row, stage));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Append a latency histogram per stage, and one for the whole path,
+     * computed from the complete rows.
+     */
+    public synchronized StringBuilder formatHistograms(StringBuilder text) {
+        MetricsRegistry histograms = new MetricsRegistry();
+        MetricsRegistry.Histogram[] stages = new MetricsRegistry.Histogram[STAGES];
+        for (int stage = 1; stage < STAGES; stage++) {
+            stages[stage] = histograms.histogram(STAGE_NAMES[stage]);
+        }
+        MetricsRegistry.Histogram total = histograms.histogram("sample_to_write");
+
+        int rows = size();
+        for (int row = 0; row < rows; row++) {
+            for (int stage = 1; stage < STAGES; stage++) {
+                stages[stage].record(get(row, stage) - get(row, stage - 1));
+            }
+            total.record(get(row, STAGE_WRITTEN) - get(row, STAGE_SAMPLE));
+        }
+        text.append("rows ").append(rows).append('\n');
+        return histograms.format(text, true);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.BluetoothChat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * An in-memory Transport. createPair() returns two ends joined by a pair
+ * of bounded pipes: what one end writes, the other reads. Writes block
+ * while the pipe is full, as a socket's do. Closing either end closes both
+ * pipes; reads then drain what is left and return -1, and writes throw.
+ */
+public class LoopbackTransport implements Transport {
+    private final Pipe mIn;
+    private final Pipe mOut;
+    private final String mName;
+
+    private LoopbackTransport(Pipe in, Pipe out, String name) {
+        mIn = in;
+        mOut = out;
+        mName = name;
+    }
+
+    /**
+     * Create two connected ends.
+     * @param capacity  Bytes each direction holds before writes block
+     */
+    public static LoopbackTransport[] createPair(int capacity) {
+        Pipe forward = new Pipe(capacity);
+        Pipe backward = new Pipe(capacity);
+        return new LoopbackTransport[] {
+            new LoopbackTransport(backward, forward, "loopback-0"),
+            new LoopbackTransport(forward, backward, "loopback-1")
+        };
+    }
+
+    public InputStream getInputStream() {
+        return mIn.mInput;
+    }
+
+    public OutputStream getOutputStream() {
+        return mOut.mOutput;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void close() {
+        mIn.close();
+        mOut.close();
+    }
+
+    /**
+     * A bounded byte ring with a blocking stream on each side.
+     */
+    private static class Pipe {
+        private final byte[] mBuffer;
+        private int mHead;   // next byte to read
+        private int mCount;  // bytes waiting
+        private boolean mClosed = false;
+
+        private final InputStream mInput = new InputStream() {
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return Pipe.this.read(buffer, offset, length);
+            }
+
+            public int available() {
+                return Pipe.this.available();
+            }
+
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        private final OutputStream mOutput = new OutputStream() {
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                Pipe.this.write(buffer, offset, length);
+            }
+
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        Pipe(int capacity) {
+            mBuffer = new byte[capacity];
+        }
+
+        synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            while (mCount == 0) {
+                if (mClosed) return -1;
+                waitInterruptibly();
+            }
+
+            int n = Math.min(length, mCount);
+            int first = Math.min(n, mBuffer.length - mHead);
+            System.arraycopy(mBuffer, mHead, buffer, offset, first);
+            System.arraycopy(mBuffer, 0, buffer, offset + first, n - first);
+            mHead = (mHead + n) % mBuffer.length;
+            mCount -= n;
+            notifyAll();
+            return n;
+        }
+
+        synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                while (mCount == mBuffer.length && !mClosed) {
+                    waitInterruptibly();
+                }
+                if (mClosed) throw new IOException("pipe closed");
+
+                int tail = (mHead + mCount) % mBuffer.length;
+                int n = Math.min(length, Math.min(mBuffer.length - mCount, mBuffer.length - tail));
+                System.arraycopy(buffer, offset, mBuffer, tail, n);
+                mCount += n;
+                offset += n;
+                length -= n;
+                notifyAll();
+            }
+        }
+
+        synchronized int available() {
+            return mCount;
+        }
+
+        synchronized void close() {
+            mClosed = true;
+            notifyAll();
+        }
+
+        private void waitInterruptibly() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.BluetoothChat;
+
+/**
+ * Low-pass filter for three-axis accelerometer samples, applied before
+ * the samples are turned into angles so that sensor noise does not reach
+ * the servos. It runs either as a single-pole IIR filter or as a moving
+ * average, both in 16.16 fixed point on state allocated up front; a
+ * sample costs a few integer operations and no allocation.
+ */
+public class LowPassFilter {
+    // Filter modes
+    public static final int MODE_NONE = 0;            // pass samples through
+    public static final int MODE_IIR = 1;             // single-pole IIR
+    public static final int MODE_MOVING_AVERAGE = 2;  // mean of the last N samples
+
+    public static final int MAX_WINDOW = 32;
+
+    private static final int AXES = 3;
+    private static final int FRACTION_BITS = 16;
+    private static final float ONE = 1 << FRACTION_BITS;
+
+    private int mMode = MODE_NONE;
+    private int mAlpha;       // IIR smoothing factor, 16.16
+    private int mWindowSize;  // moving average length
+
+    private boolean mPrimed = false;
+    private final int[] mState = new int[AXES];  // IIR output, 16.16
+    private final int[][] mWindow = new int[AXES][MAX_WINDOW];
+    private final long[] mSums = new long[AXES];
+    private int mWindowPos;
+    private int mWindowFill;
+
+    private final float[] mOutput = new float[AXES];
+
+    /**
+     * Filter as a single-pole IIR low-pass.
+     * @param cutoffHz      -3 dB frequency
+     * @param sampleRateHz  Rate at which samples arrive
+     */
+    public synchronized void setIir(float cutoffHz, float sampleRateHz) {
+        double dt = 1.0 / sampleRateHz;
+        double rc = 1.0 / (2 * Math.PI * cutoffHz);
+        mAlpha = (int) (dt / (rc + dt) * ONE);
+        if (mAlpha < 1) mAlpha = 1;
+        mMode = MODE_IIR;
+        reset();
+    }
+
+    /**
+     * Filter as a moving average whose length gives roughly the requested
+     * -3 dB frequency, limited to MAX_WINDOW samples.
+     * @param cutoffHz      -3 dB frequency
+     * @param sampleRateHz  Rate at which samples arrive
+     */
+    public synchronized void setMovingAverage(float cutoffHz, float sampleRateHz) {
+        int window = Math.round(0.443f * sampleRateHz / cutoffHz);
+        mWindowSize = Math.max(1, Math.min(MAX_WINDOW, window));
+        mMode = MODE_MOVING_AVERAGE;
+        reset();
+    }
+
+    /**
+     * Pass samples through unchanged.
+     */
+    public synchronized void setNone() {
+        mMode = MODE_NONE;
+        reset();
+    }
+
+    public synchronized int getMode() {
+        return mMode;
+    }
+
+    /**
+     * Forget the filter history; the next sample starts it afresh.
+     */
+    public synchronized void reset() {
+        mPrimed = false;
+        mWindowPos = 0;
+        mWindowFill = 0;
+        for (int i = 0; i < AXES; i++) {
+            mSums[i] = 0;
+        }
+    }
+
+    /**
+     * Filter one sample.
+     * @return The filtered x, y and z values. The array is reused by the
+     *         next call.
+     */
+    public synchronized float[] filter(float x, float y, float z) {
+        switch (mMode) {
+        case MODE_IIR:
+            filterIir(0, x);
+            filterIir(1, y);
+            filterIir(2, z);
+            mPrimed = true;
+            break;
+        case MODE_MOVING_AVERAGE:
+            int count = Math.min(mWindowFill + 1, mWindowSize);
+            filterAverage(0, x, count);
+            filterAverage(1, y, count);
+            filterAverage(2, z, count);
+            mWindowPos = (mWindowPos + 1) % mWindowSize;
+            if (mWindowFill < mWindowSize) mWindowFill++;
+            break;
+        default:
+            mOutput[0] = x;
+            mOutput[1] = y;
+            mOutput[2] = z;
+            break;
+        }
+        return mOutput;
+    }
+
+    private void filterIir(int axis, float value) {
+        int in = (int) (value * ONE);
+        if (!mPrimed) {
+            // Start from the first sample rather than ramping up from zero
+            mState[axis] = in;
+        } else {
+            mState[axis] += (int) (((long) mAlpha * (in - mState[axis])) >> FRACTION_BITS);
+        }
+        mOutput[axis] = mState[axis] / ONE;
+    }
+
+    private void filterAverage(int axis, float value, int count) {
+        int in = (int) (value * ONE);
+        int[] window = mWindow[axis];
+        if (mWindowFill == mWindowSize) {
+            mSums[axis] -= window[mWindowPos];
+        }
+        window[mWindowPos] = in;
+        mSums[axis] += in;
+        mOutput[axis] = (mSums[axis] / count) / ONE;
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.android.BluetoothChat;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Named counters, gauges and latency histograms for the Bluetooth
+ * pipeline. Metrics are registered once at setup; recording into one is
+ * a single atomic operation, or a few for a histogram, with no locks and
+ * no allocation, so the hot paths can record every frame. The registry
+ * formats everything as text for the on-screen overlay and for dumps,
+ * with counters shown as totals and as rates since the previous format.
+ */
+public class MetricsRegistry {
+    private final List<Counter> mCounters = new CopyOnWriteArrayList<Counter>();
+    private final List<Gauge> mGauges = new CopyOnWriteArrayList<Gauge>();
+    private final List<Histogram> mHistograms = new CopyOnWriteArrayList<Histogram>();
+    private long mLastFormatTime = 0;
+
+    /**
+     * A count that only goes up.
+     */
+    public static final class Counter {
+        private final String mName;
+        private final AtomicLong mValue = new AtomicLong();
+        // Value at the previous format, for the rate; used by the formatter only
+        private long mLastValue;
+
+        Counter(String name) {
+            mName = name;
+        }
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long n) {
+            mValue.addAndGet(n);
+        }
+
+        /**
+         * Mirror a total kept elsewhere, such as a queue's drop count.
+         */
+        public void set(long value) {
+            mValue.set(value);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    /**
+     * A value that goes up and down, such as a queue depth.
+     */
+    public static final class Gauge {
+        private final String mName;
+        private volatile long mValue;
+
+        Gauge(String name) {
+            mName = name;
+        }
+
+        public void set(long value) {
+            mValue = value;
+        }
+
+        public long get() {
+            return mValue;
+        }
+    }
+
+    /**
+     * Counts durations in nanoseconds in buckets whose bounds double from
+     * 1 microsecond to about 4.3 seconds; longer durations go in the last
+     * bucket.
+     */
+    public static final class Histogram {
+        public static final int BUCKETS = 24;
+        private static final int FIRST_SHIFT = 10;  // first bound is 2^10 ns
+
+        private final String mName;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        Histogram(String name) {
+            mName = name;
+        }
+
+        public void record(long nanos) {
+            int bucket = 64 - Long.numberOfLeadingZeros(nanos >> FIRST_SHIFT);
+            if (nanos < 0) bucket = 0;
+            mBuckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+            mCount.incrementAndGet();
+            mSum.addAndGet(nanos);
+            long max;
+            while (nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos)) {
+                // Lost a race with another recorder; try again
+            }
+        }
+
+        /**
+         * Return the exclusive upper bound of a bucket, in nanoseconds.
+         */
+        public static long getBucketBound(int bucket) {
+            return 1L << (FIRST_SHIFT + bucket);
+        }
+
+        public long getBucketCount(int bucket) {
+            return mBuckets.get(bucket);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mSum.get() / count;
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * Return the bound of the bucket holding the given percentile, an
+         * upper estimate of it.
+         * @param percent  0-100
+         */
+        public long getPercentile(double percent) {
+            long count = mCount.get();
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(count * percent / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) return getBucketBound(i);
+            }
+            return mMax.get();
+        }
+    }
+
+    public Counter counter(String name) {
+        Counter counter = new Counter(name);
+        mCounters.add(counter);
+        return counter;
+    }
+
+    public Gauge gauge(String name) {
+        Gauge gauge = new Gauge(name);
+        mGauges.add(gauge);
+        return gauge;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = new Histogram(name);
+        mHistograms.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Append every metric as text, one per line. Counter rates cover the
+     * time since the previous call.
+     * @param buckets  true to list the histogram buckets as well
+     */
+    public synchronized StringBuilder format(StringBuilder text, boolean buckets) {
+        return format(text, buckets, true);
+    }
+
+    /**
+     * @param advance  true to start the next rate interval from now; false
+     *                 leaves the rates of the next format() undisturbed
+     */
+    private StringBuilder format(StringBuilder text, boolean buckets, boolean advance) {
+        long now = System.nanoTime();
+        double seconds = mLastFormatTime == 0 ? 0 : (now - mLastFormatTime) / 1e9;
+        if (advance) mLastFormatTime = now;
+
+        for (Counter counter : mCounters) {
+            long value = counter.get();
+            text.append(counter.mName).append(' ').append(value);
+            if (seconds > 0) {
+                text.append(" (").append(Math.round((value - counter.mLastValue) / seconds))
+                    .append("/s)");
+            }
+            text.append('\n');
+            if (advance) counter.mLastValue = value;
+        }
+        for (Gauge gauge : mGauges) {
+            text.append(gauge.mName).append(' ').append(gauge.get()).append('\n');
+        }
+        for (Histogram histogram : mHistograms) {
+            text.append(histogram.mName)
+                .append(" n=").append(histogram.getCount())
+                .append(" mean=").append(histogram.getMean() / 1000)
+                .append(" p50<").append(histogram.getPercentile(50) / 1000)
+                .append(" p99<").append(histogram.getPercentile(99) / 1000)
+                .append(" max=").append(histogram.getMax() / 1000)
+                .append(" us\n");
+            if (buckets) {
+                for (int i = 0; i < Histogram.BUCKETS; i++) {
+                    long count = histogram.getBucketCount(i);
+                    if (count == 0) continue;
+                    if (i < Histogram.BUCKETS - 1) {
+                        text.append("  <").append(Histogram.getBucketBound(i) / 1000);
+                    } else {
+                        text.append("  >=").append(Histogram.getBucketBound(i - 1) / 1000);
+                    }
+                    text.append(" us ").append(count).append('\n');
+                }
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Write every metric, with histogram buckets, to a file. Rates cover
+     * the time since the last format(), which they do not disturb.
+     */
+    public void dump(File file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        text.append("time ").append(System.currentTimeMillis()).append('\n');
+        synchronized (this) {
+            format(text, true, false);
+        }
+        FileWriter out = new FileWriter(file);
+        try {
+            out.write(text.toString());
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.android.BluetoothChat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+/**
+ * A Transport over a connected Bluetooth RFCOMM socket.
+ */
+public class RfcommTransport implements Transport {
+    private final BluetoothSocket mSocket;
+    private final BluetoothDevice mDevice;
+
+    public RfcommTransport(BluetoothSocket socket, BluetoothDevice device) {
+        mSocket = socket;
+        mDevice = device;
+    }
+
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    public String getName() {
+        return mDevice.getName();
+    }
+
+    public void close() throws IOException {
+        mSocket.close();
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.android.BluetoothChat;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Compiles a text script into a binary file of ready-to-send frames, so
+ * that playing it again needs no parsing. The compiled file is cached
+ * beside the script as "<script>.tsc" and is reused as long as the
+ * script's path, size and modification time match the ones recorded in
+ * its header.
+ *
+ * Script syntax: entries are separated by ';' or line breaks. An entry
+ * starting with "0x" is the bytes its hex digits spell, "@wait N" is a
+ * pause of N milliseconds, and any other entry is sent as its text.
+ * Entries with invalid hex and pauses that are not positive are left out.
+ *
+ * Compiled layout, big-endian: int MAGIC, int VERSION, long script size,
+ * long script modification time, the script path as written by
+ * DataOutputStream.writeUTF, then one record per frame. A record is an
+ * int pause in milliseconds to wait before the frame, an unsigned short
+ * length and the frame bytes. A pause at the end of the script is a
+ * record of length 0.
+ */
+public final class ScriptCompiler {
+    public static final String SUFFIX = ".tsc";
+
+    private static final int MAGIC = 0x54534331;  // "TSC1"
+    private static final int VERSION = 1;
+    private static final String WAIT_DIRECTIVE = "@wait";
+    private static final int MAX_FRAME = 0xFFFF;
+
+    private ScriptCompiler() {
+    }
+
+    /**
+     * Return an up-to-date compiled file for a script, compiling it if
+     * needed. The cache lives beside the script; if that directory is not
+     * writable, it lives in fallbackDir instead.
+     * @param fallbackDir  Directory for caches that cannot be written
+     *                     beside their script, or null
+     */
+    public static File compile(String path, File fallbackDir) throws IOException {
+        File source = new File(path);
+        File cache = new File(path + SUFFIX);
+        if (isCurrent(cache, source)) return cache;
+        try {
+            compile(source, cache);
+            return cache;
+        } catch (IOException e) {
+            if (fallbackDir == null) throw e;
+        }
+
+        // The path is in the header, so a clash of hash codes only costs a recompile
+        cache = new File(fallbackDir, Integer.toHexString(path.hashCode()) + SUFFIX);
+        if (!isCurrent(cache, source)) compile(source, cache);
+        return cache;
+    }
+
+    /**
+     * Return the length of a compiled file's header, i.e. the offset of
+     * its first record.
+     */
+    public static int getHeaderLength(File cache) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(cache));
+        try {
+            in.readInt();
+            in.readInt();
+            in.readLong();
+            in.readLong();
+            int pathLength = in.readUnsignedShort();
+            return 4 + 4 + 8 + 8 + 2 + pathLength;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean isCurrent(File cache, File source) {
+        if (!cache.isFile()) return false;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(cache));
+            try {
+                return in.readInt() == MAGIC
+                        && in.readInt() == VERSION
+                        && in.readLong() == source.length()
+                        && in.readLong() == source.lastModified()
+                        && in.readUTF().equals(source.getPath());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void compile(File source, File cache) throws IOException {
+        // Written under a temporary name so a reader never sees half a file
+        File temp = new File(cache.getPath() + ".tmp");
+        BufferedReader reader = new BufferedReader(new FileReader(source));
+        try {
+            // Fails here when the directory is not writable; the reader is still closed
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                write(reader, source, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (!temp.renameTo(cache)) {
+            cache.delete();
+            if (!temp.renameTo(cache)) {
+                temp.delete();
+                throw new IOException("cannot write " + cache);
+            }
+        }
+    }
+
+    /**
+     * Write the header, then a record for every entry of the script.
+     */
+    private static void write(BufferedReader reader, File source, DataOutputStream out)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(source.length());
+        out.writeLong(source.lastModified());
+        out.writeUTF(source.getPath());
+
+        byte[] frame = new byte[64];
+        int wait = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int start = 0;
+            while (start <= line.length()) {
+                int end = line.indexOf(';', start);
+                if (end < 0) end = line.length();
+                String entry = line.substring(start, end).trim();
+                start = end + 1;
+
+                if (entry.length() == 0) continue;
+                if (entry.startsWith(WAIT_DIRECTIVE)) {
+                    try {
+                        int pause = Integer.parseInt(
+                                entry.substring(WAIT_DIRECTIVE.length()).trim());
+                        // A negative pause would shorten the ones around it
+                        if (pause > 0) wait += pause;
+                    } catch (NumberFormatException e) {
+                        // Not a valid directive; leave it out
+                    }
+                    continue;
+                }
+
+                int length;
+                byte[] bytes;
+                if (entry.startsWith("0x")) {
+                    if ((entry.length() - 2) / 2 > frame.length) {
+                        frame = new byte[(entry.length() - 2) / 2];
+                    }
+                    length = HexCodec.decode(entry, 2, entry.length(), frame, 0);
+                    if (length < 0) continue;
+                    bytes = frame;
+                } else {
+                    bytes = entry.getBytes();
+                    length = bytes.length;
+                }
+                if (length > MAX_FRAME) continue;
+
+                out.writeInt(wait);
+                out.writeShort(length);
+                out.write(bytes, 0, length);
+                wait = 0;
+            }
+        }
+        if (wait > 0) {
+            out.writeInt(wait);
+            out.writeShort(0);
+        }
+    }
+}
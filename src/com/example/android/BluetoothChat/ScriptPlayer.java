@@ -0,0 +1,186 @@
+package com.example.android.BluetoothChat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays a script file to a FrameSink on its own thread. The script is
+ * first compiled by ScriptCompiler, which is skipped when an up-to-date
+ * compiled file is cached, and the compiled file is then memory-mapped
+ * and its frames copied from the mapping into one reused buffer, so
+ * playback neither parses nor allocates per frame and large scripts do
+ * not sit in the heap. Frames are sent one by one with a configurable
+ * delay between them, and writes wait for room in the outbound queue so
+ * the link is not flooded. Playback stops, incomplete, at the first frame
+ * the sink refuses, such as when the link is down. Playback can be
+ * paused, resumed and cancelled; progress and the end of playback are
+ * reported to a Listener on the player thread.
+ */
+public class ScriptPlayer {
+
+    /**
+     * Receives playback events, on the player thread.
+     */
+    public interface Listener {
+        /**
+         * @param percent  Share of the script played so far, 0-100
+         */
+        void onProgress(int percent);
+
+        /**
+         * @param completed  true if the whole script was played, false if
+         *                   it was cancelled, could not be read or was
+         *                   refused by the sink
+         */
+        void onFinished(boolean completed);
+    }
+
+    private final FrameSink mSink;
+    private final Listener mListener;
+    private final File mCacheDir;
+    private volatile int mFrameDelay;
+    private PlayerThread mThread;
+
+    /**
+     * Constructor.
+     * @param sink           Where the script's frames are written
+     * @param listener       Receives progress and completion
+     * @param frameDelayMs   Pause after each frame, in milliseconds
+     * @param cacheDir       Where compiled scripts go when they cannot be
+     *                       cached beside their script, or null
+     */
+    public ScriptPlayer(FrameSink sink, Listener listener, int frameDelayMs, File cacheDir) {
+        mSink = sink;
+        mListener = listener;
+        mCacheDir = cacheDir;
+        mFrameDelay = frameDelayMs;
+    }
+
+    public void setFrameDelay(int millis) {
+        mFrameDelay = millis;
+    }
+
+    /**
+     * Start playing a script, cancelling any script already playing.
+     */
+    public synchronized void play(String path) {
+        if (mThread != null) mThread.cancel();
+        mThread = new PlayerThread(path);
+        mThread.start();
+    }
+
+    public synchronized void pause() {
+        if (mThread != null) mThread.setPaused(true);
+    }
+
+    public synchronized void resume() {
+        if (mThread != null) mThread.setPaused(false);
+    }
+
+    public synchronized void cancel() {
+        if (mThread != null) {
+            mThread.cancel();
+            mThread = null;
+        }
+    }
+
+    public synchronized boolean isPlaying() {
+        return mThread != null && mThread.isAlive();
+    }
+
+    public synchronized boolean isPaused() {
+        return mThread != null && mThread.isPaused();
+    }
+
+    /**
+     * This thread compiles the script if needed and sends its frames.
+     */
+    private class PlayerThread extends Thread {
+        private final String mmPath;
+        private byte[] mmBuffer = new byte[64];
+        private volatile boolean mmCanceled = false;
+        private boolean mmPaused = false;
+
+        public PlayerThread(String path) {
+            mmPath = path;
+        }
+
+        public void run() {
+            setName("ScriptPlayer");
+            boolean completed = false;
+            try {
+                completed = play();
+            } catch (IOException e) {
+                // Reported below as an incomplete playback
+            } catch (InterruptedException e) {
+                // Cancelled while waiting
+            }
+            mListener.onFinished(completed && !mmCanceled);
+        }
+
+        private boolean play() throws IOException, InterruptedException {
+            File compiled = ScriptCompiler.compile(mmPath, mCacheDir);
+            int headerLength = ScriptCompiler.getHeaderLength(compiled);
+
+            MappedByteBuffer records;
+            FileInputStream in = new FileInputStream(compiled);
+            try {
+                FileChannel channel = in.getChannel();
+                // The mapping stays valid after the channel is closed
+                records = channel.map(FileChannel.MapMode.READ_ONLY,
+                        headerLength, channel.size() - headerLength);
+            } finally {
+                in.close();
+            }
+
+            int total = Math.max(1, records.limit());
+            int lastPercent = -1;
+            while (records.hasRemaining()) {
+                waitWhilePaused();
+                if (mmCanceled) return false;
+
+                int wait = records.getInt();
+                int length = records.getShort() & 0xFFFF;
+                if (wait > 0) Thread.sleep(wait);
+                if (length > 0) {
+                    if (length > mmBuffer.length) mmBuffer = new byte[length];
+                    records.get(mmBuffer, 0, length);
+                    if (!mSink.writeBlocking(mmBuffer, 0, length)) return false;
+                    int delay = mFrameDelay;
+                    if (delay > 0) Thread.sleep(delay);
+                }
+
+                int percent = (int) ((long) records.position() * 100 / total);
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    mListener.onProgress(percent);
+                }
+            }
+            return true;
+        }
+
+        private synchronized void waitWhilePaused() throws InterruptedException {
+            while (mmPaused && !mmCanceled) {
+                wait();
+            }
+        }
+
+        public synchronized void setPaused(boolean paused) {
+            mmPaused = paused;
+            notifyAll();
+        }
+
+        public synchronized boolean isPaused() {
+            return mmPaused;
+        }
+
+        public void cancel() {
+            mmCanceled = true;
+            // Wakes the thread from a pause, a delay or a full queue
+            interrupt();
+        }
+    }
+}
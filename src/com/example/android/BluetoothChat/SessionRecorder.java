@@ -0,0 +1,246 @@
+package com.example.android.BluetoothChat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records a session's raw sensor samples and the frames sent and received
+ * to a binary file, for SessionReplayer. Recording is a copy into one of
+ * two preallocated buffers under a short lock; a flusher thread writes
+ * full buffers, and every second any partly filled one, through a
+ * FileChannel, so the sensor and connection threads never wait on the
+ * file. If both buffers are full because the file cannot keep up, records
+ * are dropped and counted rather than blocking.
+ *
+ * File layout, big-endian: int MAGIC, int VERSION, then records. Every
+ * record starts with a byte type and a long System.nanoTime() of when it
+ * was recorded. A TYPE_SAMPLE record goes on with the sensor event's long
+ * timestamp and float x, y and z; a TYPE_FRAME_OUT or TYPE_FRAME_IN record
+ * with an unsigned short length and the frame bytes.
+ */
+public class SessionRecorder {
+    public static final int MAGIC = 0x54535231;  // "TSR1"
+    public static final int VERSION = 1;
+
+    // Record types
+    public static final int TYPE_SAMPLE = 0;
+    public static final int TYPE_FRAME_OUT = 1;
+    public static final int TYPE_FRAME_IN = 2;
+
+    private static final int SAMPLE_BYTES = 1 + 8 + 8 + 3 * 4;
+    private static final int FRAME_HEADER_BYTES = 1 + 8 + 2;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    // mActive takes records; mStandby is null while the flusher owns it
+    private ByteBuffer mActive;
+    private ByteBuffer mStandby;
+    private ByteBuffer mFull;
+    private volatile boolean mRecording = false;
+    private boolean mStopping = false;
+    private long mDroppedCount = 0;
+    private FlushThread mFlushThread;
+
+    /**
+     * Constructor.
+     * @param bufferBytes  Size of each of the two buffers
+     */
+    public SessionRecorder(int bufferBytes) {
+        mActive = ByteBuffer.allocateDirect(bufferBytes);
+        mStandby = ByteBuffer.allocateDirect(bufferBytes);
+    }
+
+    /**
+     * Start recording to a new file, stopping any recording in progress.
+     */
+    public void start(File file) throws IOException {
+        stop();
+        FileOutputStream out = new FileOutputStream(file);
+        FileChannel channel = out.getChannel();
+        synchronized (this) {
+            // A failed write may have left a buffer behind
+            if (mStandby == null) {
+                mStandby = mFull;
+                mFull = null;
+            }
+            mStandby.clear();
+            mActive.clear();
+            mActive.putInt(MAGIC);
+            mActive.putInt(VERSION);
+            mDroppedCount = 0;
+            mStopping = false;
+            mFlushThread = new FlushThread(out, channel);
+            mFlushThread.start();
+            mRecording = true;
+        }
+    }
+
+    /**
+     * Stop recording and wait until everything recorded is in the file.
+     */
+    public void stop() {
+        FlushThread thread;
+        synchronized (this) {
+            mRecording = false;
+            mStopping = true;
+            thread = mFlushThread;
+            mFlushThread = null;
+            notifyAll();
+        }
+        if (thread == null) return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    /**
+     * Return the number of records dropped since recording started.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Record a raw sensor sample.
+     * @param timestamp  The sensor event's timestamp
+     */
+    public void recordSample(float x, float y, float z, long timestamp) {
+        if (!mRecording) return;
+        long now = System.nanoTime();
+        synchronized (this) {
+            ByteBuffer buffer = reserve(SAMPLE_BYTES);
+            if (buffer == null) return;
+            buffer.put((byte) TYPE_SAMPLE);
+            buffer.putLong(now);
+            buffer.putLong(timestamp);
+            buffer.putFloat(x);
+            buffer.putFloat(y);
+            buffer.putFloat(z);
+        }
+    }
+
+    /**
+     * Record a frame sent or received.
+     * @param direction  ConversationLog.DIRECTION_OUT or DIRECTION_IN
+     */
+    public void recordFrame(int direction, byte[] buffer, int offset, int length) {
+        if (!mRecording) return;
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (length > 0xFFFF) {
+                mDroppedCount++;
+                return;
+            }
+            ByteBuffer out = reserve(FRAME_HEADER_BYTES + length);
+            if (out == null) return;
+            out.put((byte) (direction == ConversationLog.DIRECTION_OUT
+                    ? TYPE_FRAME_OUT : TYPE_FRAME_IN));
+            out.putLong(now);
+            out.putShort((short) length);
+            out.put(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Return a buffer with room for a record, handing the active buffer to
+     * the flusher if it is full, or null if the record must be dropped.
+     * Called with the lock held.
+     */
+    private ByteBuffer reserve(int bytes) {
+        if (!mRecording) return null;
+        if (mActive.remaining() >= bytes) return mActive;
+        if (mStandby == null || bytes > mStandby.capacity()) {
+            mDroppedCount++;
+            return null;
+        }
+        handOver();
+        return mActive;
+    }
+
+    /**
+     * Give the active buffer to the flusher. Called with the lock held and
+     * the standby buffer available.
+     */
+    private void handOver() {
+        mFull = mActive;
+        mActive = mStandby;
+        mStandby = null;
+        notifyAll();
+    }
+
+    /**
+     * This thread writes filled buffers to the file.
+     */
+    private class FlushThread extends Thread {
+        private final FileOutputStream mmOut;
+        private final FileChannel mmChannel;
+
+        public FlushThread(FileOutputStream out, FileChannel channel) {
+            mmOut = out;
+            mmChannel = channel;
+        }
+
+        public void run() {
+            setName("SessionFlushThread");
+            ByteBuffer buffer = null;
+            try {
+                while ((buffer = next()) != null) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        mmChannel.write(buffer);
+                    }
+                    release(buffer);
+                }
+            } catch (IOException e) {
+                // Nothing more can be written; stop taking records
+                mRecording = false;
+                release(buffer);
+            } catch (InterruptedException e) {
+                // Not expected; the file keeps what was written
+            } finally {
+                try {
+                    mmOut.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+
+        /**
+         * Wait for a buffer to write, or return null once stopped and
+         * everything is written. Partly filled buffers are written after
+         * FLUSH_INTERVAL_MS too, so a crash loses at most that much.
+         */
+        private ByteBuffer next() throws InterruptedException {
+            synchronized (SessionRecorder.this) {
+                while (mFull == null) {
+                    if (mStopping) {
+                        if (mActive.position() == 0) return null;
+                        handOver();
+                    } else {
+                        SessionRecorder.this.wait(FLUSH_INTERVAL_MS);
+                        if (mFull == null && mActive.position() > 0) handOver();
+                    }
+                }
+                ByteBuffer buffer = mFull;
+                mFull = null;
+                return buffer;
+            }
+        }
+
+        private void release(ByteBuffer buffer) {
+            synchronized (SessionRecorder.this) {
+                buffer.clear();
+                mStandby = buffer;
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.BluetoothChat;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back the sensor samples of a file written by SessionRecorder on
+ * its own thread, either at the pace they were recorded or as fast as the
+ * Listener takes them. Recorded frames are skipped; sending is left to
+ * whatever the samples drive. A file cut short by a crash plays up to its
+ * last whole record.
+ */
+public class SessionReplayer {
+    /**
+     * Receives the recorded samples, on the replay thread.
+     */
+    public interface Listener {
+        /**
+         * @param timestamp  The recorded sensor event's timestamp
+         */
+        void onSample(float x, float y, float z, long timestamp);
+
+        /**
+         * @param completed  true if the whole file was played, false if
+         *                   it was cancelled or could not be read
+         */
+        void onFinished(boolean completed);
+    }
+
+    private final Listener mListener;
+    private volatile ReplayThread mThread;
+
+    public SessionReplayer(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Start playing a recording, cancelling any replay in progress.
+     * @param realTime  true to keep the recorded spacing of the samples,
+     *                  false to play them back to back
+     */
+    public synchronized void play(String path, boolean realTime) {
+        if (mThread != null) mThread.cancel();
+        mThread = new ReplayThread(path, realTime);
+        mThread.start();
+    }
+
+    public synchronized void cancel() {
+        if (mThread != null) {
+            mThread.cancel();
+            mThread = null;
+        }
+    }
+
+    /**
+     * Return true while a replay is running. Cheap enough to call for
+     * every live sample.
+     */
+    public boolean isPlaying() {
+        ReplayThread thread = mThread;
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * This thread reads the recording and passes its samples on.
+     */
+    private class ReplayThread extends Thread {
+        private final String mmPath;
+        private final boolean mmRealTime;
+        private volatile boolean mmCanceled = false;
+
+        public ReplayThread(String path, boolean realTime) {
+            mmPath = path;
+            mmRealTime = realTime;
+        }
+
+        public void run() {
+            setName("SessionReplayThread");
+            boolean completed = false;
+            try {
+                completed = replay();
+            } catch (IOException e) {
+                // Reported below as an incomplete replay
+            }
+            mListener.onFinished(completed && !mmCanceled);
+        }
+
+        private boolean replay() throws IOException {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mmPath)));
+            try {
+                if (in.readInt() != SessionRecorder.MAGIC
+                        || in.readInt() != SessionRecorder.VERSION) {
+                    throw new IOException("not a session recording: " + mmPath);
+                }
+
+                long start = System.nanoTime();
+                long firstRecord = -1;
+                while (!mmCanceled) {
+                    int type = in.read();
+                    if (type < 0) return true;
+                    long time = in.readLong();
+                    if (firstRecord < 0) firstRecord = time;
+
+                    switch (type) {
+                    case SessionRecorder.TYPE_SAMPLE:
+                        long timestamp = in.readLong();
+                        float x = in.readFloat();
+                        float y = in.readFloat();
+                        float z = in.readFloat();
+                        if (mmRealTime) waitUntil(start + (time - firstRecord));
+                        if (mmCanceled) return false;
+                        mListener.onSample(x, y, z, timestamp);
+                        break;
+                    case SessionRecorder.TYPE_FRAME_OUT:
+                    case SessionRecorder.TYPE_FRAME_IN:
+                        int length = in.readUnsignedShort();
+                        in.skipBytes(length);
+                        break;
+                    default:
+                        throw new IOException("unknown record type " + type);
+                    }
+                }
+                return false;
+            } catch (EOFException e) {
+                // The recording was cut short inside its last record
+                return true;
+            } finally {
+                in.close();
+            }
+        }
+
+        private void waitUntil(long deadline) {
+            long remaining;
+            while (!mmCanceled && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+
+        public void cancel() {
+            mmCanceled = true;
+            // Wakes the thread from waiting for the next sample
+            interrupt();
+        }
+    }
+}
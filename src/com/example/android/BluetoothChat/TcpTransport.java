@@ -0,0 +1,55 @@
+package com.example.android.BluetoothChat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * A Transport over a TCP socket, for running the pipeline against a toy
+ * stand-in on the network or on localhost. Nagle's algorithm is turned
+ * off so each write leaves at once, as it would over RFCOMM.
+ */
+public class TcpTransport implements Transport {
+    private final Socket mSocket;
+
+    /**
+     * Wrap a connected socket, such as one returned by ServerSocket.accept().
+     */
+    public TcpTransport(Socket socket) throws IOException {
+        mSocket = socket;
+        mSocket.setTcpNoDelay(true);
+    }
+
+    /**
+     * Connect to a listening socket.
+     * @param timeoutMs  Connect timeout in milliseconds, or 0 for none
+     */
+    public static TcpTransport connect(String host, int port, int timeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            return new TcpTransport(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    public String getName() {
+        return mSocket.getInetAddress().getHostAddress() + ":" + mSocket.getPort();
+    }
+
+    public void close() throws IOException {
+        mSocket.close();
+    }
+}
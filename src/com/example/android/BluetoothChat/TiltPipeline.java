@@ -0,0 +1,169 @@
+package com.example.android.BluetoothChat;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Turns accelerometer samples into ToyData frames: low-pass filtering,
+ * tilt angles for channels 0 and 1, random angles for channels 2 and 3,
+ * change suppression and frame encoding. Samples are expected from a single
+ * thread and only update the latest angles; frames are built and sent
+ * when tick() is called, normally by a TransmitScheduler on another
+ * thread. Settings may be changed from any thread. Nothing is allocated
+ * per sample or per tick.
+ */
+public class TiltPipeline {
+    public static final int CHANNELS = 4;
+
+    // Holds back angles that moved less than the deadband since last sent
+    private static final int DEADBAND_DEGREES = 1;
+    private static final int KEYFRAME_INTERVAL_MS = 1000;
+
+    // Smooths every sample, including the ones between ticks
+    private static final float SENSOR_RATE_HZ = 50;  // SENSOR_DELAY_GAME
+    private static final float FILTER_CUTOFF_HZ = 5;
+
+    private final FrameSink mSink;
+    private final LowPassFilter mFilter = new LowPassFilter();
+    private final ChangeSuppressor mSuppressor =
+            new ChangeSuppressor(CHANNELS, DEADBAND_DEGREES, KEYFRAME_INTERVAL_MS);
+
+    private volatile int mSpeed = 10;                   // 10 degree/s
+
+    // Latest tilt angles, written by the sensor thread. Tilt and pitch are
+    // packed into one value so a tick never pairs angles from two samples.
+    private final int[] mSampleAngles = new int[2];
+    private volatile long mTiltPitch;
+    private volatile boolean mHasSample = false;
+
+    // Set while tracing
+    private volatile LatencyTrace mTrace;
+    // The latest sample's trace times, written by the sensor thread. The
+    // sequence is odd while they change, so a tick that reads the same
+    // even sequence before and after them has times from one sample.
+    private static final int TIME_SAMPLE = 0;
+    private static final int TIME_CONVERTED = 1;
+    private static final int TIME_TIMESTAMP = 2;
+    private final AtomicLongArray mSampleTimes = new AtomicLongArray(3);
+    private volatile int mSampleSequence = 0;
+    private final long[] mTimes = new long[3];  // read by tick()
+
+    // Reused on every tick: one angle and one frame per channel
+    private final int[] mAngles = new int[CHANNELS];
+    private final byte[] mFrames = new byte[CHANNELS * ToyData.FRAME_LENGTH];
+
+    public TiltPipeline(FrameSink sink) {
+        mSink = sink;
+        mFilter.setIir(FILTER_CUTOFF_HZ, SENSOR_RATE_HZ);
+    }
+
+    public void setSpeed(int speed) {
+        mSpeed = speed;
+    }
+
+    public LowPassFilter getFilter() {
+        return mFilter;
+    }
+
+    public ChangeSuppressor getSuppressor() {
+        return mSuppressor;
+    }
+
+    /**
+     * Record each tick's frames in a trace, or null to stop.
+     */
+    public void setTrace(LatencyTrace trace) {
+        mTrace = trace;
+    }
+
+    /**
+     * Send every channel on the next tick, e.g. to a new connection.
+     */
+    public void reset() {
+        mSuppressor.reset();
+    }
+
+    /**
+     * Process one accelerometer sample.
+     * @param timestamp  Sample time in nanoseconds
+     */
+    public void onSample(float x, float y, float z, long timestamp) {
+        LatencyTrace trace = mTrace;
+        long sampleTime = trace != null && trace.isEnabled() ? System.nanoTime() : 0;
+
+        float[] filtered = mFilter.filter(x, y, z);
+
+        // Channels 0 and 1 follow the tilt
+        AngleConverter.convert(filtered[0], filtered[1], filtered[2], mSampleAngles);
+        mTiltPitch = ((long) mSampleAngles[0] << 32) | (mSampleAngles[1] & 0xFFFFFFFFL);
+        mHasSample = true;
+
+        if (sampleTime != 0) {
+            long convertedTime = System.nanoTime();
+            int sequence = mSampleSequence;
+            mSampleSequence = sequence + 1;
+            mSampleTimes.set(TIME_SAMPLE, sampleTime);
+            mSampleTimes.set(TIME_CONVERTED, convertedTime);
+            mSampleTimes.set(TIME_TIMESTAMP, timestamp);
+            mSampleSequence = sequence + 2;
+        }
+    }
+
+    /**
+     * Copy the latest sample's trace times into mTimes.
+     * @return false if no sample has been traced
+     */
+    private boolean readSampleTimes() {
+        int sequence;
+        while (true) {
+            sequence = mSampleSequence;
+            if ((sequence & 1) != 0) {
+                // The sensor thread is part way through
+                Thread.yield();
+                continue;
+            }
+            mTimes[TIME_SAMPLE] = mSampleTimes.get(TIME_SAMPLE);
+            mTimes[TIME_CONVERTED] = mSampleTimes.get(TIME_CONVERTED);
+            mTimes[TIME_TIMESTAMP] = mSampleTimes.get(TIME_TIMESTAMP);
+            if (mSampleSequence == sequence) return sequence != 0;
+        }
+    }
+
+    /**
+     * Send the latest state of every channel that changed.
+     * @param now  Current time from System.nanoTime()
+     */
+    public void tick(long now) {
+        if (!mHasSample) return;
+
+        long tiltPitch = mTiltPitch;
+        mAngles[0] = (int) (tiltPitch >> 32);
+        mAngles[1] = (int) tiltPitch;
+        mAngles[2] = 60+(int)((Math.random()*60));
+        mAngles[3] = 60+(int)((Math.random()*60));
+
+        send(now);
+    }
+
+    /**
+     * Encode the channels that changed and hand them to the sink.
+     */
+    private void send(long now) {
+        int speed = mSpeed;
+        int length = 0;
+        for (int i = 0; i < CHANNELS; i++) {
+            if (mSuppressor.shouldSend(i, mAngles[i], now)) {
+                length = ToyData.encode(mFrames, length, i, mAngles[i], speed);
+            }
+        }
+        if (length > 0) {
+            LatencyTrace trace = mTrace;
+            boolean traced = trace != null && trace.isEnabled() && readSampleTimes();
+            long encodedTime = traced ? System.nanoTime() : 0;
+            mSink.writeFrames(mFrames, 0, length);
+            if (traced) {
+                trace.queued(mTimes[TIME_SAMPLE], mTimes[TIME_CONVERTED],
+                        mTimes[TIME_TIMESTAMP], encodedTime, System.nanoTime());
+            }
+        }
+    }
+}
@@ -4,6 +4,8 @@
  */
 package com.example.android.BluetoothChat;
 
+import java.nio.ByteBuffer;
+
 /**
  *
  * @author Administrator
@@ -18,7 +20,8 @@ public class ToyData {
     private byte mspeed; // range over  1 degree/second
     private byte mparity; // sum of bits of channel, angle, speed,
     private byte madditional=0;
-    private static int byteNum = 9;
+    public static final int FRAME_LENGTH = 9;
+    private static int byteNum = FRAME_LENGTH;
     
     public void setChannel(byte channel) {
         mchannel = channel;
@@ -51,20 +54,59 @@ public class ToyData {
     
     public byte[] getData (){
         byte [] mdata = new byte[byteNum];
-        setParity();
-        final int i = 0;
-        mdata[0] = mhead1st;
-        mdata[1] = mhead2nd;
-        mdata[2] = mchannel;
-        mdata[3] = mangle;
-        mdata[4] = mspeed;        
-        mdata[5] = mparity;
-        mdata[6] = madditional;
-        mdata[7] = mtail1st;
-        mdata[8] = mtail2snd;
+        getData(mdata, 0);
         return mdata;
         
     }
 
+    /**
+     * Write this frame into a caller-supplied buffer.
+     * @return the offset just past the frame
+     */
+    public int getData(byte[] dst, int offset) {
+        setParity();
+        return encode(dst, offset, mchannel, mangle, mspeed);
+    }
+
+    /**
+     * Write one frame into dst at offset without allocating, as the
+     * benchmark module's ToyDataTest checks.
+     * @return the offset just past the frame
+     */
+    public static int encode(byte[] dst, int offset, int channel, int angle, int speed) {
+        dst[offset] = mhead1st;
+        dst[offset + 1] = mhead2nd;
+        dst[offset + 2] = (byte) channel;
+        dst[offset + 3] = (byte) angle;
+        dst[offset + 4] = (byte) speed;
+        dst[offset + 5] = (byte) (channel + angle + speed);
+        dst[offset + 6] = 0;
+        dst[offset + 7] = mtail1st;
+        dst[offset + 8] = mtail2snd;
+        return offset + FRAME_LENGTH;
+    }
+
+    /**
+     * Write one frame at the buffer's position and advance it.
+     */
+    public static void encode(ByteBuffer dst, int channel, int angle, int speed) {
+        dst.put(mhead1st).put(mhead2nd)
+           .put((byte) channel).put((byte) angle).put((byte) speed)
+           .put((byte) (channel + angle + speed)).put((byte) 0)
+           .put(mtail1st).put(mtail2snd);
+    }
+
+    /**
+     * Write one frame per channel back to back, channel i taking angles[i].
+     * @param count  Number of channels, starting at channel 0
+     * @return the offset just past the last frame
+     */
+    public static int encodeChannels(byte[] dst, int offset, int[] angles, int count, int speed) {
+        for (int i = 0; i < count; i++) {
+            offset = encode(dst, offset, i, angles[i], speed);
+        }
+        return offset;
+    }
+
     
 }
@@ -0,0 +1,130 @@
+package com.example.android.BluetoothChat;
+
+/**
+ * Incremental decoder for the 9-byte frames described by ToyData. Bytes
+ * can be fed in chunks of any size as they come off the socket; frames
+ * split across reads are reassembled, garbage between frames is skipped
+ * and frames with a bad parity byte or tail are rejected. Decoding never
+ * allocates, and each good frame is handed to the Listener on the thread
+ * that calls feed().
+ */
+public class ToyFrameParser {
+    private static final byte HEAD_1ST = (byte) 0xF0;
+    private static final byte HEAD_2ND = (byte) 0xF1;
+    private static final byte TAIL_1ST = (byte) 0x0D;
+    private static final byte TAIL_2ND = (byte) 0x0A;
+
+    /**
+     * Receives the decoded frames.
+     */
+    public interface Listener {
+        /**
+         * @param channel     Channel byte, 0-255
+         * @param angle       Angle byte, 0-255
+         * @param speed       Speed byte, 0-255
+         * @param additional  The reserved byte after the parity, 0-255
+         */
+        void onFrame(int channel, int angle, int speed, int additional);
+    }
+
+    private final Listener mListener;
+    // The frame being assembled; mFrame[0..mPos) always starts with a header
+    private final byte[] mFrame = new byte[ToyData.FRAME_LENGTH];
+    private int mPos;
+
+    // Statistics
+    private long mFrames;
+    private long mChecksumErrors;
+    private long mFramingErrors;
+    private long mSkippedBytes;
+
+    public ToyFrameParser(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Decode the next chunk of the inbound stream.
+     */
+    public void feed(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            push(buffer[i]);
+        }
+    }
+
+    private void push(byte b) {
+        // Hunt for the two header bytes
+        if (mPos == 0 && b != HEAD_1ST) {
+            mSkippedBytes++;
+            return;
+        }
+        if (mPos == 1 && b != HEAD_2ND) {
+            mSkippedBytes++;
+            // The rejected byte may itself start the next header
+            mPos = (b == HEAD_1ST) ? 1 : 0;
+            return;
+        }
+
+        mFrame[mPos++] = b;
+        if (mPos < mFrame.length) return;
+
+        if (mFrame[7] != TAIL_1ST || mFrame[8] != TAIL_2ND) {
+            mFramingErrors++;
+            resync();
+        } else if (mFrame[5] != (byte) (mFrame[2] + mFrame[3] + mFrame[4])) {
+            mChecksumErrors++;
+            resync();
+        } else {
+            mFrames++;
+            mPos = 0;
+            mListener.onFrame(mFrame[2] & 0xFF, mFrame[3] & 0xFF, mFrame[4] & 0xFF,
+                    mFrame[6] & 0xFF);
+        }
+    }
+
+    /**
+     * Drop a rejected frame up to the next possible header inside it, so a
+     * real frame that began in the middle of a bad one is not lost.
+     */
+    private void resync() {
+        int start = 1;
+        while (start < mPos) {
+            if (mFrame[start] == HEAD_1ST
+                    && (start + 1 == mPos || mFrame[start + 1] == HEAD_2ND)) {
+                break;
+            }
+            start++;
+        }
+        mSkippedBytes += start;
+        System.arraycopy(mFrame, start, mFrame, 0, mPos - start);
+        mPos -= start;
+    }
+
+    /**
+     * Forget any partly assembled frame, e.g. when a new connection starts.
+     * The counters keep counting across resets.
+     */
+    public void reset() {
+        mPos = 0;
+    }
+
+    /** Number of frames delivered to the listener */
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    /** Number of complete frames rejected because of a bad parity byte */
+    public long getChecksumErrorCount() {
+        return mChecksumErrors;
+    }
+
+    /** Number of complete frames rejected because of a bad tail */
+    public long getFramingErrorCount() {
+        return mFramingErrors;
+    }
+
+    /** Number of bytes discarded while looking for the next header */
+    public long getSkippedByteCount() {
+        return mSkippedBytes;
+    }
+}
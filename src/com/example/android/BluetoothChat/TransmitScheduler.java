@@ -0,0 +1,151 @@
+package com.example.android.BluetoothChat;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a task at a fixed rate on its own thread, timed with
+ * System.nanoTime(). Deadlines are computed from the start time rather
+ * than from the previous wake-up, so lateness in one tick does not shift
+ * the ones after it; if the thread falls more than a whole period
+ * behind, the missed ticks are skipped instead of run in a burst.
+ * How late each tick actually ran is kept as jitter statistics.
+ */
+public class TransmitScheduler {
+    private final Runnable mTask;
+    private volatile long mPeriod;
+    private volatile boolean mPeriodChanged = false;
+    private SchedulerThread mThread;
+
+    // Statistics, in nanoseconds
+    private long mTicks;
+    private long mMissedTicks;
+    private long mLatenessSum;
+    private long mLatenessMax;
+    private double mLatenessSquareSum;
+
+    /**
+     * Constructor.
+     * @param task          Run once per period on the scheduler thread
+     * @param periodMillis  Time between two runs; at least 1 ms is used
+     */
+    public TransmitScheduler(Runnable task, int periodMillis) {
+        mTask = task;
+        mPeriod = Math.max(1, periodMillis) * 1000000L;
+    }
+
+    /**
+     * Change the rate; takes effect from the next tick. Periods under
+     * 1 ms are raised to 1 ms.
+     */
+    public void setPeriod(int millis) {
+        mPeriod = Math.max(1, millis) * 1000000L;
+        mPeriodChanged = true;
+        LockSupport.unpark(getThread());
+    }
+
+    public synchronized void start() {
+        if (mThread != null) return;
+        mThread = new SchedulerThread();
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+        if (mThread == null) return;
+        mThread.cancel();
+        mThread = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return mThread != null;
+    }
+
+    private synchronized Thread getThread() {
+        return mThread;
+    }
+
+    private synchronized void recordTick(long lateness, long missed) {
+        mTicks++;
+        mMissedTicks += missed;
+        mLatenessSum += lateness;
+        mLatenessSquareSum += (double) lateness * lateness;
+        if (lateness > mLatenessMax) mLatenessMax = lateness;
+    }
+
+    public synchronized void resetStatistics() {
+        mTicks = 0;
+        mMissedTicks = 0;
+        mLatenessSum = 0;
+        mLatenessMax = 0;
+        mLatenessSquareSum = 0;
+    }
+
+    /** Number of ticks run */
+    public synchronized long getTickCount() {
+        return mTicks;
+    }
+
+    /** Number of ticks skipped because the thread was a period or more late */
+    public synchronized long getMissedTickCount() {
+        return mMissedTicks;
+    }
+
+    /** Mean time between a tick's deadline and its run, in nanoseconds */
+    public synchronized long getMeanLateness() {
+        return mTicks == 0 ? 0 : mLatenessSum / mTicks;
+    }
+
+    /** Largest time between a tick's deadline and its run, in nanoseconds */
+    public synchronized long getMaxLateness() {
+        return mLatenessMax;
+    }
+
+    /** Standard deviation of the lateness, in nanoseconds */
+    public synchronized long getLatenessDeviation() {
+        if (mTicks == 0) return 0;
+        double mean = (double) mLatenessSum / mTicks;
+        return (long) Math.sqrt(Math.max(0, mLatenessSquareSum / mTicks - mean * mean));
+    }
+
+    /**
+     * This thread sleeps until each deadline and runs the task.
+     */
+    private class SchedulerThread extends Thread {
+        private volatile boolean mmCanceled = false;
+
+        public void run() {
+            setName("TransmitScheduler");
+            long period = mPeriod;
+            long next = System.nanoTime();
+
+            while (!mmCanceled) {
+                if (mPeriodChanged) {
+                    // Re-anchor on the new period from the last deadline
+                    mPeriodChanged = false;
+                    long newPeriod = mPeriod;
+                    next += newPeriod - period;
+                    period = newPeriod;
+                }
+
+                long now = System.nanoTime();
+                if (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+
+                // Lateness counts from the first deadline missed, so a stall
+                // shows in full rather than modulo the period
+                long lateness = now - next;
+                long missed = lateness / period;
+                recordTick(lateness, missed);
+                mTask.run();
+
+                next += (missed + 1) * period;
+            }
+        }
+
+        public void cancel() {
+            mmCanceled = true;
+            LockSupport.unpark(this);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.android.BluetoothChat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An open, two-way byte stream to a toy or a stand-in for one. A
+ * TransportConnection reads and writes it; RfcommTransport carries it over
+ * Bluetooth, TcpTransport over a socket and LoopbackTransport in memory.
+ */
+public interface Transport {
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Return a name for the other end, for display.
+     */
+    String getName();
+
+    /**
+     * Close the stream. A read blocked on it returns or throws.
+     */
+    void close() throws IOException;
+}
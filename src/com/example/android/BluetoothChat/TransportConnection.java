@@ -0,0 +1,200 @@
+package com.example.android.BluetoothChat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Runs an open Transport: a read thread hands every chunk received to the
+ * Listener, and a write thread sends the frames queued in a
+ * FrameRingBuffer, batching whatever is waiting into one write. Nothing
+ * here depends on Android, so the whole connection can run against a TCP
+ * or loopback stand-in on a plain JVM.
+ */
+public class TransportConnection {
+    /**
+     * Receives connection events, on the connection's threads.
+     */
+    public interface Listener {
+        /**
+         * Called on the read thread for every chunk received. The buffer
+         * is reused once this returns.
+         */
+        void onRead(byte[] buffer, int length);
+
+        /**
+         * Called on the write thread after every write. The buffer is
+         * reused once this returns.
+         * @param takenTime  System.nanoTime() when take() returned the frames
+         * @param nanos      Time spent in write() and flush()
+         */
+        void onWrite(byte[] buffer, int length, long takenTime, long nanos);
+
+        /**
+         * Called on the read thread when the transport fails or is closed
+         * by the other end, but not after close().
+         */
+        void onLost(IOException e);
+    }
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private final Transport mTransport;
+    private final FrameRingBuffer mQueue;
+    private final Listener mListener;
+    private final ReadThread mReadThread;
+    private volatile int mReadPollInterval = 0;
+    private volatile boolean mClosed = false;
+
+    /**
+     * Constructor. Call start() to begin reading and writing.
+     * @param queue  Frames to send; take() is called by the write thread only
+     */
+    public TransportConnection(Transport transport, FrameRingBuffer queue, Listener listener) {
+        mTransport = transport;
+        mQueue = queue;
+        mListener = listener;
+        mReadThread = new ReadThread();
+    }
+
+    public Transport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * Choose how the read thread waits for incoming data. By default it
+     * blocks in read(); a positive interval makes it check available()
+     * that often instead, for streams whose read() does not return when
+     * they are closed.
+     * @param millis  Poll interval in milliseconds, or 0 to block
+     */
+    public void setReadPollInterval(int millis) {
+        mReadPollInterval = millis;
+    }
+
+    public void start() {
+        mReadThread.start();
+    }
+
+    /**
+     * Stop both threads and close the transport. Queued frames are
+     * discarded except the latest frame per channel, which the owner may
+     * send on a later connection or clear. Frames the writer had already
+     * taken off the queue are lost with the connection, even if their
+     * write failed; a TiltPipeline reset for the next connection sends
+     * every channel again.
+     */
+    public void close() {
+        mClosed = true;
+        mReadThread.cancel();
+        try {
+            mTransport.close();
+        } catch (IOException e) {
+            // Closing is all that is left to do
+        }
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * This thread reads from the transport and owns the WriteThread.
+     */
+    private class ReadThread extends Thread {
+        private WriteThread mmWriteThread;
+
+        public void run() {
+            setName("ReadThread");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                InputStream in = mTransport.getInputStream();
+                OutputStream out = mTransport.getOutputStream();
+                synchronized (this) {
+                    if (mClosed) return;
+                    mmWriteThread = new WriteThread(out);
+                    mmWriteThread.start();
+                }
+
+                // Keep listening to the InputStream while connected
+                while (!mClosed) {
+                    int pollInterval = mReadPollInterval;
+                    if (pollInterval > 0 && in.available() == 0) {
+                        // Short-timeout mode: check again soon instead of blocking
+                        try {
+                            Thread.sleep(pollInterval);
+                        } catch (InterruptedException e) {
+                            // close() wakes the thread; the loop checks why
+                        }
+                        continue;
+                    }
+
+                    // Blocks until data arrives or the transport is closed
+                    int bytes = in.read(buffer);
+                    if (bytes < 0) throw new IOException("end of stream");
+                    mListener.onRead(buffer, bytes);
+                }
+            } catch (IOException e) {
+                // A transport closed by close() is not a lost connection
+                if (mClosed) return;
+                cancelWriter();
+                mListener.onLost(e);
+            }
+        }
+
+        public void cancel() {
+            interrupt();
+            cancelWriter();
+        }
+
+        private synchronized void cancelWriter() {
+            if (mmWriteThread != null) mmWriteThread.cancel();
+        }
+    }
+
+    /**
+     * This thread sends queued frames, so a slow transport never blocks
+     * the threads that queue them.
+     */
+    private class WriteThread extends Thread {
+        private final OutputStream mmOutStream;
+
+        public WriteThread(OutputStream out) {
+            mmOutStream = out;
+        }
+
+        public void run() {
+            setName("WriteThread");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytes;
+            long takenTime;
+
+            while (true) {
+                try {
+                    // Wait for queued frames
+                    bytes = mQueue.take(buffer);
+                    takenTime = System.nanoTime();
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                try {
+                    long start = System.nanoTime();
+                    mmOutStream.write(buffer, 0, bytes);
+                    mmOutStream.flush();
+                    mListener.onWrite(buffer, bytes, takenTime, System.nanoTime() - start);
+                } catch (IOException e) {
+                    // The ReadThread notices the lost connection. The
+                    // batch is not queued again: see close()
+                    break;
+                }
+            }
+        }
+
+        public void cancel() {
+            interrupt();
+            // Release producers blocked on frames that will never be sent
+            mQueue.clearAllButLatest();
+        }
+    }
+}